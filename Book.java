@@ -0,0 +1,100 @@
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A Serializable class to represent a book, replacing the 'struct books' from the C code.
+ */
+class Book implements Serializable {
+    private static final long serialVersionUID = 1L; // Recommended for Serializable classes
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    /** The shelving categories a book can belong to. */
+    static final String[] CATEGORIES = {"Computer", "Electronics", "Electrical", "Civil", "Mechanical"};
+
+    private int id;
+    private String name;
+    private String author;
+    private int quantity;
+    private double price;
+    private int rackNo;
+    private String category;
+
+    // Fields for issued books
+    private String studentName;
+    private LocalDate issuedDate;
+    private LocalDate dueDate;
+
+    public Book(int id, String name, String author, int quantity, double price, int rackNo, String category) {
+        this.id = id;
+        this.name = name;
+        this.author = author;
+        this.quantity = quantity;
+        this.price = price;
+        this.rackNo = rackNo;
+        this.category = category;
+    }
+
+    /**
+     * Creates an independent copy of another book, including its issue details.
+     * The copy is made through the getters, so it also detaches a book view (see ColumnarBookTable).
+     */
+    public Book(Book other) {
+        this(other.getId(), other.getName(), other.getAuthor(), other.getQuantity(), other.getPrice(),
+                other.getRackNo(), other.getCategory());
+        this.studentName = other.getStudentName();
+        this.issuedDate = other.getIssuedDate();
+        this.dueDate = other.getDueDate();
+    }
+
+    // Getters
+    public int getId() { return id; }
+    public String getName() { return name; }
+    public String getAuthor() { return author; }
+    public int getQuantity() { return quantity; }
+    public double getPrice() { return price; }
+    public int getRackNo() { return rackNo; }
+    public String getCategory() { return category; }
+    public String getStudentName() { return studentName; }
+    public LocalDate getIssuedDate() { return issuedDate; }
+    public LocalDate getDueDate() { return dueDate; }
+
+    // Setters
+    public void setName(String name) { this.name = name; }
+    public void setAuthor(String author) { this.author = author; }
+    public void setQuantity(int quantity) { this.quantity = quantity; }
+    public void setPrice(double price) { this.price = price; }
+    public void setRackNo(int rackNo) { this.rackNo = rackNo; }
+
+    /**
+     * Sets the issue details for the book.
+     * @param studentName The name of the student issuing the book.
+     * @param returnTimeDays The number of days until the book is due.
+     */
+    public void issueBook(String studentName, int returnTimeDays) {
+        this.studentName = studentName;
+        this.issuedDate = LocalDate.now();
+        this.dueDate = this.issuedDate.plusDays(returnTimeDays);
+    }
+
+    /**
+     * Restores issue details read back from storage.
+     */
+    void setIssueDetails(String studentName, LocalDate issuedDate, LocalDate dueDate) {
+        this.studentName = studentName;
+        this.issuedDate = issuedDate;
+        this.dueDate = dueDate;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%-15s %-7d %-20s %-20s %-7d %-10.2f %-7d",
+                getCategory(), getId(), getName(), getAuthor(), getQuantity(), getPrice(), getRackNo());
+    }
+
+    public String toIssuedString() {
+        return String.format("%-20s %-15s %-7d %-20s %-15s %-15s",
+                getStudentName(), getCategory(), getId(), getName(),
+                getIssuedDate().format(DATE_FORMAT), getDueDate().format(DATE_FORMAT));
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A bounded cache of books in front of a disk-resident store, so popular titles are read from memory
+ * while the long tail stays on disk.
+ *
+ * Entries are weighed by their encoded size (BookCodec.size) and the least recently used are evicted
+ * once the total passes the limit, so the cache's heap use does not grow with the catalog. Listings and
+ * scans go straight to the store and do not displace the working set.
+ *
+ * Writes go to the store first and then drop the cached copy, so the cache only ever holds books as
+ * read back from the store. A miss reads the store without holding the cache lock; its result is kept
+ * only if no write happened meanwhile, so a slow read cannot put back a book that was just changed.
+ */
+class BookCache implements BookRepository {
+
+    private final BookRepository store;
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Metrics.Counter hitCounter = Metrics.counter("cache.books.hits");
+    private final Metrics.Counter missCounter = Metrics.counter("cache.books.misses");
+    private long bytes;
+    private long writes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Caches up to maxBytes of encoded books from the store. */
+    BookCache(BookRepository store, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.store = store;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public Book get(int id) {
+        long seen;
+        synchronized (this) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                hits++;
+                hitCounter.add(1);
+                return entry.book;
+            }
+            misses++;
+            missCounter.add(1);
+            seen = writes;
+        }
+        Book book = store.get(id);
+        if (book != null) {
+            synchronized (this) {
+                if (writes == seen && !entries.containsKey(id)) {
+                    admit(id, book);
+                }
+            }
+        }
+        return book;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        synchronized (this) {
+            if (entries.containsKey(id)) {
+                return true;
+            }
+        }
+        return store.contains(id);
+    }
+
+    @Override
+    public void put(int id, Book book) {
+        store.put(id, book);
+        invalidate(id);
+    }
+
+    @Override
+    public boolean delete(int id) {
+        boolean deleted = store.delete(id);
+        invalidate(id);
+        return deleted;
+    }
+
+    @Override
+    public boolean adjustQuantity(int id, int delta) {
+        boolean adjusted = store.adjustQuantity(id, delta);
+        if (adjusted) {
+            invalidate(id);
+        }
+        return adjusted;
+    }
+
+    @Override
+    public void putAll(List<Book> books) {
+        store.putAll(books);
+        synchronized (this) {
+            writes++;
+            for (Book book : books) {
+                remove(book.getId());
+            }
+        }
+    }
+
+    @Override
+    public List<Book> list() {
+        return store.list();
+    }
+
+    @Override
+    public void forEach(Consumer<? super Book> action) {
+        store.forEach(action);
+    }
+
+    @Override
+    public long totalQuantity() {
+        return store.totalQuantity();
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    /** Hit and miss counts and current occupancy, for display. */
+    synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d books in %d of %d KB",
+                hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions,
+                entries.size(), bytes / 1024, maxBytes / 1024);
+    }
+
+    private synchronized void invalidate(int id) {
+        writes++;
+        remove(id);
+    }
+
+    private void admit(int id, Book book) {
+        int weight = BookCodec.size(book);
+        if (weight > maxBytes) {
+            return;
+        }
+        entries.put(id, new Entry(book, weight));
+        bytes += weight;
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(int id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            bytes -= entry.weight;
+        }
+    }
+
+    private static final class Entry {
+        final Book book;
+        final int weight;
+
+        Entry(Book book, int weight) {
+            this.book = book;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Compact binary encoding of books, replacing Java object serialization.
+ *
+ * Record layout (version 1):
+ *   int id, int quantity, double price, int rackNo,
+ *   byte category (index into CATEGORIES, or -1 followed by the name),
+ *   string name, string author,
+ *   byte issued flag, then string studentName, int issuedDate, int dueDate (as epoch days) if set.
+ * Strings are an int byte length (-1 for null) followed by UTF-8 bytes.
+ *
+ * A snapshot file is a header (magic, version, generation, count) followed by that many records.
+ */
+final class BookCodec {
+
+    static final int SNAPSHOT_MAGIC = 0x4C4D5342; // "LMSB"
+    static final short VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BookCodec() {
+    }
+
+    static void write(DataOutput out, Book book) throws IOException {
+        out.writeInt(book.getId());
+        out.writeInt(book.getQuantity());
+        out.writeDouble(book.getPrice());
+        out.writeInt(book.getRackNo());
+        int category = categoryIndex(book.getCategory());
+        out.writeByte(category);
+        if (category < 0) {
+            writeString(out, book.getCategory());
+        }
+        writeString(out, book.getName());
+        writeString(out, book.getAuthor());
+        if (book.getIssuedDate() == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            writeString(out, book.getStudentName());
+            out.writeInt((int) book.getIssuedDate().toEpochDay());
+            out.writeInt((int) book.getDueDate().toEpochDay());
+        }
+    }
+
+    static Book read(ByteBuffer in) {
+        int id = in.getInt();
+        int quantity = in.getInt();
+        double price = in.getDouble();
+        int rackNo = in.getInt();
+        byte category = in.get();
+        String categoryName = category < 0 ? readString(in) : Book.CATEGORIES[category];
+        String name = readString(in);
+        String author = readString(in);
+        Book book = new Book(id, name, author, quantity, price, rackNo, categoryName);
+        if (in.get() != 0) {
+            String studentName = readString(in);
+            LocalDate issuedDate = LocalDate.ofEpochDay(in.getInt());
+            LocalDate dueDate = LocalDate.ofEpochDay(in.getInt());
+            book.setIssueDetails(studentName, issuedDate, dueDate);
+        }
+        return book;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, syncs it and atomically renames it over the target.
+     */
+    static void writeSnapshot(Path target, long generation, Collection<Book> books) throws IOException {
+        writeSnapshot(target, generation, books.size(), books::forEach);
+    }
+
+    /**
+     * Writes a snapshot of count books, which the source passes one at a time to the sink it is given,
+     * so a store can write its books without collecting them first.
+     */
+    static void writeSnapshot(Path target, long generation, int count, Consumer<Consumer<Book>> source) throws IOException {
+        long start = Metrics.start();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(generation);
+            out.writeInt(count);
+            try {
+                source.accept(book -> {
+                    try {
+                        write(out, book);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.flush();
+            fos.getFD().sync();
+            Metrics.counter("storage." + target.getFileName() + ".bytesWritten").add(out.size());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.timer("storage." + target.getFileName() + ".snapshot").stop(start);
+    }
+
+    /**
+     * Reads a snapshot in one go and streams its books to the sink.
+     * @return the snapshot's generation, or 0 if there is no snapshot yet.
+     */
+    static long readSnapshot(Path source, Consumer<Book> sink) throws IOException {
+        if (!Files.exists(source) || Files.size(source) == 0) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            // Read into a heap buffer rather than mapping, so the file can be replaced on compaction (Windows)
+            ByteBuffer in = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                // keep reading
+            }
+            in.flip();
+            Metrics.counter("storage." + source.getFileName() + ".bytesRead").add(in.limit());
+            if (in.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a book snapshot: " + source);
+            }
+            short version = in.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + source);
+            }
+            long generation = in.getLong();
+            int count = in.getInt();
+            try {
+                for (int i = 0; i < count; i++) {
+                    sink.accept(read(in));
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Truncated snapshot " + source, e);
+            }
+            return generation;
+        }
+    }
+
+    /** Returns the number of bytes write produces for the book, without encoding it. */
+    static int size(Book book) {
+        int size = Integer.BYTES * 3 + Double.BYTES + 1 + 1;
+        if (categoryIndex(book.getCategory()) < 0) {
+            size += stringSize(book.getCategory());
+        }
+        size += stringSize(book.getName()) + stringSize(book.getAuthor());
+        if (book.getIssuedDate() != null) {
+            size += stringSize(book.getStudentName()) + Integer.BYTES * 2;
+        }
+        return size;
+    }
+
+    private static int stringSize(String value) {
+        if (value == null) {
+            return Integer.BYTES;
+        }
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return Integer.BYTES + bytes;
+    }
+
+    private static int categoryIndex(String category) {
+        String[] categories = Book.CATEGORIES;
+        for (int i = 0; i < categories.length; i++) {
+            if (categories[i].equals(category)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes the catalog to a CSV or JSON-lines file, a page of books at a time in id order.
+ * Each page is read from the catalog before it is written, so the store is never locked while the
+ * file is, and desks can keep issuing and editing books during a long export.
+ * The output is written to a temporary file and renamed, so a failed export leaves no partial file.
+ */
+class BookExporter {
+
+    private static final int PAGE_SIZE = 1024;
+
+    private final LibraryService library;
+
+    BookExporter(LibraryService library) {
+        this.library = library;
+    }
+
+    /**
+     * Exports every book in id order, returning how many were written. Books changed during the export
+     * appear as they were when their page was read.
+     */
+    int exportFile(Path path) throws IOException {
+        BookFormat format = BookFormat.forFile(path);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int count = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            if (format.header() != null) {
+                writer.write(format.header());
+                writer.newLine();
+            }
+            String token = null;
+            do {
+                Page<Book> page = library.listBooks(BookOrder.ID, token, PAGE_SIZE);
+                for (Book book : page.getItems()) {
+                    writer.write(format.format(book));
+                    writer.newLine();
+                    count++;
+                }
+                token = page.getNextToken();
+            } while (token != null);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        return count;
+    }
+}
@@ -0,0 +1,297 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text formats for moving books in and out of the catalog in bulk, one book per line.
+ *
+ * CSV columns are id, name, author, quantity, price, rackNo, category, with an optional header row;
+ * fields containing commas or quotes are quoted, doubling any quotes inside ("" for "). Quoted fields
+ * cannot span lines. JSON lines are one flat object per line with the same keys.
+ *
+ * Parsing validates each record and throws IllegalArgumentException saying what is wrong.
+ */
+enum BookFormat {
+
+    CSV {
+        @Override
+        String header() {
+            return String.join(",", FIELDS);
+        }
+
+        @Override
+        boolean isHeader(String line) {
+            return line.regionMatches(true, 0, "id,", 0, 3);
+        }
+
+        @Override
+        Book parse(String line) {
+            List<String> fields = splitCsv(line);
+            if (fields.size() != FIELDS.length) {
+                throw new IllegalArgumentException("expected " + FIELDS.length + " fields but found " + fields.size());
+            }
+            return toBook(fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.get(4), fields.get(5), fields.get(6));
+        }
+
+        @Override
+        String format(Book book) {
+            return book.getId() + "," + quoteCsv(book.getName()) + "," + quoteCsv(book.getAuthor()) + ","
+                    + book.getQuantity() + "," + book.getPrice() + "," + book.getRackNo() + "," + quoteCsv(book.getCategory());
+        }
+    },
+
+    JSON_LINES {
+        @Override
+        String header() {
+            return null;
+        }
+
+        @Override
+        boolean isHeader(String line) {
+            return false;
+        }
+
+        @Override
+        Book parse(String line) {
+            Map<String, String> object = parseJsonObject(line);
+            String[] values = new String[FIELDS.length];
+            for (int i = 0; i < FIELDS.length; i++) {
+                values[i] = object.get(FIELDS[i]);
+                if (values[i] == null) {
+                    throw new IllegalArgumentException("missing \"" + FIELDS[i] + "\"");
+                }
+            }
+            return toBook(values[0], values[1], values[2], values[3], values[4], values[5], values[6]);
+        }
+
+        @Override
+        String format(Book book) {
+            return "{\"id\":" + book.getId() + ",\"name\":" + quoteJson(book.getName()) + ",\"author\":" + quoteJson(book.getAuthor())
+                    + ",\"quantity\":" + book.getQuantity() + ",\"price\":" + book.getPrice() + ",\"rackNo\":" + book.getRackNo()
+                    + ",\"category\":" + quoteJson(book.getCategory()) + "}";
+        }
+    };
+
+    private static final String[] FIELDS = {"id", "name", "author", "quantity", "price", "rackNo", "category"};
+
+    /** The first line of a file in this format, or null if it has none. */
+    abstract String header();
+
+    abstract boolean isHeader(String line);
+
+    abstract Book parse(String line);
+
+    abstract String format(Book book);
+
+    /** Picks the format from the file extension: .csv, or .jsonl/.ndjson/.json for JSON lines. */
+    static BookFormat forFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        if (name.endsWith(".csv")) {
+            return CSV;
+        }
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+            return JSON_LINES;
+        }
+        throw new IllegalArgumentException("Unknown file type (expected .csv or .jsonl): " + path);
+    }
+
+    private static Book toBook(String id, String name, String author, String quantity, String price, String rackNo, String category) {
+        if (name.isBlank()) {
+            throw new IllegalArgumentException("name is empty");
+        }
+        int parsedQuantity = parseInt("quantity", quantity);
+        if (parsedQuantity < 0) {
+            throw new IllegalArgumentException("quantity is negative");
+        }
+        double parsedPrice;
+        try {
+            parsedPrice = Double.parseDouble(price.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("price is not a number: " + price);
+        }
+        return new Book(parseInt("id", id), name, author, parsedQuantity, parsedPrice, parseInt("rackNo", rackNo), category(category));
+    }
+
+    private static int parseInt(String field, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field + " is not a whole number: " + value);
+        }
+    }
+
+    private static String category(String name) {
+        for (String category : Book.CATEGORIES) {
+            if (category.equalsIgnoreCase(name.trim())) {
+                return category;
+            }
+        }
+        throw new IllegalArgumentException("unknown category: " + name);
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(FIELDS.length);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String quoteCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"").replace('\n', ' ').replace('\r', ' ') + '"';
+    }
+
+    /**
+     * Parses one flat JSON object into its values as text; strings are unescaped, numbers and literals
+     * are kept as written. Nested objects and arrays are rejected.
+     */
+    private static Map<String, String> parseJsonObject(String line) {
+        Map<String, String> object = new HashMap<>();
+        int[] pos = {skipSpace(line, 0)};
+        expect(line, pos, '{');
+        if (peek(line, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String key = readJsonString(line, pos);
+                expect(line, pos, ':');
+                String value = peek(line, pos) == '"' ? readJsonString(line, pos) : readJsonLiteral(line, pos);
+                object.put(key, value);
+                char next = peek(line, pos);
+                pos[0]++;
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw new IllegalArgumentException("expected ',' or '}' at column " + pos[0]);
+                }
+            }
+        }
+        if (skipSpace(line, pos[0]) != line.length()) {
+            throw new IllegalArgumentException("unexpected text after the object");
+        }
+        return object;
+    }
+
+    private static String readJsonString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder value = new StringBuilder();
+        int i = pos[0];
+        while (i < line.length() && line.charAt(i) != '"') {
+            char c = line.charAt(i++);
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (i >= line.length()) {
+                break;
+            }
+            char escaped = line.charAt(i++);
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 't': value.append('\t'); break;
+                case 'r': value.append('\r'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    if (i + 4 > line.length()) {
+                        throw new IllegalArgumentException("bad \\u escape");
+                    }
+                    value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default: value.append(escaped); break;
+            }
+        }
+        if (i >= line.length()) {
+            throw new IllegalArgumentException("unterminated string");
+        }
+        pos[0] = i + 1;
+        return value.toString();
+    }
+
+    private static String readJsonLiteral(String line, int[] pos) {
+        int start = pos[0];
+        int i = start;
+        while (i < line.length() && ",} \t".indexOf(line.charAt(i)) < 0) {
+            if (line.charAt(i) == '{' || line.charAt(i) == '[') {
+                throw new IllegalArgumentException("nested values are not supported");
+            }
+            i++;
+        }
+        if (i == start) {
+            throw new IllegalArgumentException("missing value at column " + start);
+        }
+        pos[0] = i;
+        return line.substring(start, i);
+    }
+
+    private static void expect(String line, int[] pos, char c) {
+        if (peek(line, pos) != c) {
+            throw new IllegalArgumentException("expected '" + c + "' at column " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    /** Skips spaces and returns the next character without consuming it (0 at the end). */
+    private static char peek(String line, int[] pos) {
+        pos[0] = skipSpace(line, pos[0]);
+        return pos[0] < line.length() ? line.charAt(pos[0]) : 0;
+    }
+
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String quoteJson(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Loads a CSV or JSON-lines file of books into the catalog.
+ *
+ * The file is streamed in batches: each batch of lines is parsed in parallel, checked for ids
+ * repeated earlier in the file, and handed to the library as one batch, which stores it with a
+ * single flush and skips ids already in the catalog. Only one batch is held in memory at a time.
+ */
+class BookImporter {
+
+    static final int BATCH_SIZE = 10_000;
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private final LibraryService library;
+
+    BookImporter(LibraryService library) {
+        this.library = library;
+    }
+
+    /** Counts of what happened to each line of an import. */
+    static final class Summary {
+        int added;
+        int duplicates;
+        int invalid;
+
+        @Override
+        public String toString() {
+            return "Imported " + added + " books, skipped " + duplicates + " duplicate ids and " + invalid + " invalid lines.";
+        }
+    }
+
+    /**
+     * Imports the file, reporting invalid lines on standard error. The first occurrence of an id wins;
+     * later lines with the same id, and ids already in the catalog, are counted as duplicates.
+     */
+    Summary importFile(Path path) throws IOException {
+        BookFormat format = BookFormat.forFile(path);
+        Summary summary = new Summary();
+        IntIntMap seen = new IntIntMap();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(BATCH_SIZE);
+            int firstLine = 1;
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && format.isHeader(line))) {
+                    if (lines.isEmpty()) {
+                        firstLine = lineNumber + 1;
+                    } else {
+                        lines.add(null);
+                    }
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == BATCH_SIZE) {
+                    importBatch(format, lines, firstLine, seen, summary);
+                    lines.clear();
+                    firstLine = lineNumber + 1;
+                }
+            }
+            importBatch(format, lines, firstLine, seen, summary);
+        }
+        return summary;
+    }
+
+    /** Lines holds null for blank lines inside the batch, so positions still map to line numbers. */
+    private void importBatch(BookFormat format, List<String> lines, int firstLine, IntIntMap seen, Summary summary) {
+        int n = lines.size();
+        Book[] books = new Book[n];
+        String[] errors = new String[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            String line = lines.get(i);
+            if (line == null) {
+                return;
+            }
+            try {
+                books[i] = format.parse(line);
+            } catch (IllegalArgumentException e) {
+                errors[i] = e.getMessage();
+            }
+        });
+
+        List<Book> batch = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            if (errors[i] != null) {
+                reportInvalid(summary, firstLine + i, errors[i]);
+            } else if (books[i] != null) {
+                if (seen.containsKey(books[i].getId())) {
+                    summary.duplicates++;
+                } else {
+                    seen.put(books[i].getId(), firstLine + i);
+                    batch.add(books[i]);
+                }
+            }
+        }
+        try {
+            int added = library.addBooks(batch);
+            summary.added += added;
+            summary.duplicates += batch.size() - added;
+        } catch (IllegalArgumentException e) {
+            // The backend rejected a book (e.g. too long for its slot); find it and store the rest
+            for (Book book : batch) {
+                try {
+                    int added = library.addBooks(List.of(book));
+                    summary.added += added;
+                    summary.duplicates += 1 - added;
+                } catch (IllegalArgumentException rejected) {
+                    reportInvalid(summary, seen.get(book.getId(), 0), rejected.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void reportInvalid(Summary summary, int lineNumber, String message) {
+        if (summary.invalid < MAX_REPORTED_ERRORS) {
+            System.err.println("Line " + lineNumber + ": " + message);
+        } else if (summary.invalid == MAX_REPORTED_ERRORS) {
+            System.err.println("(further invalid lines not shown)");
+        }
+        summary.invalid++;
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * The orders a book listing can be sorted in. Names compare ignoring case; ties go by id.
+ */
+enum BookOrder {
+    ID,
+    NAME,
+    /** By category, then name within each category. */
+    CATEGORY
+}
@@ -0,0 +1,59 @@
+/**
+ * Criteria for browsing the catalog by category, rack and price. Unset criteria match every book.
+ */
+class BookQuery {
+
+    private String category;
+    private Integer rackNo;
+    private double minPrice = Double.NEGATIVE_INFINITY;
+    private double maxPrice = Double.POSITIVE_INFINITY;
+    private boolean maxInclusive = true;
+
+    public BookQuery category(String category) {
+        this.category = category;
+        return this;
+    }
+
+    public BookQuery rack(int rackNo) {
+        this.rackNo = rackNo;
+        return this;
+    }
+
+    /** Matches books priced from min up to and including max. */
+    public BookQuery priceBetween(double min, double max) {
+        this.minPrice = min;
+        this.maxPrice = max;
+        this.maxInclusive = true;
+        return this;
+    }
+
+    /** Matches books priced at or above the minimum. */
+    public BookQuery priceAtLeast(double min) {
+        this.minPrice = min;
+        return this;
+    }
+
+    /** Matches books priced strictly below the limit. */
+    public BookQuery priceBelow(double limit) {
+        this.maxPrice = limit;
+        this.maxInclusive = false;
+        return this;
+    }
+
+    public String getCategory() { return category; }
+    public Integer getRackNo() { return rackNo; }
+    public double getMinPrice() { return minPrice; }
+    public double getMaxPrice() { return maxPrice; }
+    public boolean isMaxInclusive() { return maxInclusive; }
+
+    public boolean hasPriceRange() {
+        return minPrice != Double.NEGATIVE_INFINITY || maxPrice != Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public String toString() {
+        return (category == null ? "any category" : category)
+                + ", " + (rackNo == null ? "any rack" : "rack " + rackNo)
+                + (hasPriceRange() ? ", price " + minPrice + (maxInclusive ? " to " : " to below ") + maxPrice : "");
+    }
+}
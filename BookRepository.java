@@ -0,0 +1,49 @@
+import java.io.Closeable;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage for the library catalog, keyed by book id.
+ */
+interface BookRepository extends Closeable {
+
+    /** Returns the book with the given id, or null if there is none. */
+    Book get(int id);
+
+    boolean contains(int id);
+
+    /** Adds the book, or replaces the stored copy of a book with the same id. */
+    void put(int id, Book book);
+
+    /** Removes the book, returning false if there was no book with that id. */
+    boolean delete(int id);
+
+    /**
+     * Changes the stock of a book by delta.
+     * @return false if there is no such book or the quantity would drop below zero.
+     */
+    boolean adjustQuantity(int id, int delta);
+
+    /**
+     * Adds or replaces several books, made durable together with one flush.
+     * Throws IllegalArgumentException, before storing any of them, if one cannot be stored.
+     */
+    void putAll(List<Book> books);
+
+    /** Returns all books in storage order. */
+    List<Book> list();
+
+    /**
+     * Passes every book to the action in storage order, without collecting them into a list.
+     * The book may be a read-only view that is only valid during the call; copy it to keep it.
+     */
+    void forEach(Consumer<? super Book> action);
+
+    /** The number of copies of all books together. */
+    long totalQuantity();
+
+    int size();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,339 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A keyed collection of books persisted as a snapshot file plus a write-ahead log.
+ *
+ * Every mutation appends a single record to "<file>.log"; the snapshot (BookCodec format)
+ * is only rewritten when the log has grown as large as the catalog itself,
+ * so the cost of a write is proportional to the record rather than to the whole file.
+ * The books stay resident after loading, indexed by key, so reads never touch the disk.
+ *
+ * A store opened with a Journal logs there instead of in its own file, so its changes can share
+ * atomic records with other stores; the journal then decides when to snapshot.
+ *
+ * All public methods are synchronized. Stored books are never changed in place (a quantity change
+ * stores a modified copy), so a book handed to one thread is not altered under it by another.
+ */
+class BookStore implements BookRepository, Journal.Party {
+
+    /** The stream number of catalog records in a shared journal. */
+    static final byte JOURNAL_STREAM = 1;
+
+    // Record types, shared with MappedBookStore, which logs the same records on the same stream
+    static final byte OP_PUT = 1;
+    static final byte OP_DELETE = 2;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final String filename;
+    private final boolean keyedById;
+    private final BookTable books;
+    private final WriteAheadLog log; // null when logging to a journal
+    private final Journal journal;
+    private long generation;
+    private int nextKey = 1;
+
+    private BookStore(String filename, boolean keyedById, Journal journal, BookTable books) throws IOException {
+        this.filename = filename;
+        this.keyedById = keyedById;
+        this.journal = journal;
+        this.books = books;
+        LegacyMigrator.migrateIfNeeded(filename, keyedById);
+        loadSnapshot();
+        WriteAheadLog ownLog = journal == null || Files.exists(ownLogPath()) ? new WriteAheadLog(ownLogPath()) : null;
+        if (ownLog != null) {
+            if (ownLog.generation() == generation) {
+                ownLog.replay(this::apply);
+            } else {
+                // The snapshot was written but the log not yet reset when we last stopped; it is already folded in.
+                ownLog.reset(generation);
+            }
+        }
+        if (journal == null) {
+            this.log = ownLog;
+        } else {
+            this.log = null;
+            if (ownLog != null) {
+                // Moving from a log of our own to the journal: the next snapshot folds the old log in and
+                // deletes it; a generation no journal has makes recovery take that snapshot straight away.
+                ownLog.close();
+                generation = -1;
+            }
+            journal.register(JOURNAL_STREAM, this);
+        }
+    }
+
+    /**
+     * Opens (or creates) a store keyed by book id, replaying any logged mutations.
+     */
+    static BookStore byId(String filename) {
+        return open(filename, true);
+    }
+
+    /**
+     * Opens (or creates) a store of entries keyed by insertion sequence, where one book may appear many times.
+     */
+    static BookStore sequential(String filename) {
+        return open(filename, false);
+    }
+
+    /**
+     * Opens (or creates) a store keyed by book id that logs to the shared journal.
+     * The journal's recover must be called once all its stores are open.
+     */
+    static BookStore journaled(String filename, Journal journal) {
+        return journaled(filename, journal, BookTable.onHeap());
+    }
+
+    /**
+     * Like journaled, but holds the books in off-heap columns (see ColumnarBookTable) rather than as
+     * objects. The files are the same, so a catalog can be switched between the two.
+     */
+    static BookStore journaledColumnar(String filename, Journal journal) {
+        return journaled(filename, journal, new ColumnarBookTable());
+    }
+
+    private static BookStore journaled(String filename, Journal journal, BookTable books) {
+        try {
+            return new BookStore(filename, true, journal, books);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening " + filename, e);
+        }
+    }
+
+    private static BookStore open(String filename, boolean keyedById) {
+        try {
+            return new BookStore(filename, keyedById, null, BookTable.onHeap());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening " + filename, e);
+        }
+    }
+
+    /** Returns the book stored under the key (its id, for stores keyed by id), or null. */
+    @Override
+    public synchronized Book get(int key) {
+        return books.get(key);
+    }
+
+    /** Returns the books in insertion order. */
+    @Override
+    public synchronized List<Book> list() {
+        return books.values();
+    }
+
+    @Override
+    public synchronized void forEach(Consumer<? super Book> action) {
+        books.forEach((key, book) -> action.accept(book));
+    }
+
+    @Override
+    public synchronized long totalQuantity() {
+        return books.totalQuantity();
+    }
+
+    @Override
+    public synchronized boolean contains(int key) {
+        return books.containsKey(key);
+    }
+
+    /** A key not yet used by any book, for stores that are not keyed by book id. */
+    public synchronized int nextKey() {
+        return nextKey;
+    }
+
+    @Override
+    public synchronized void put(int key, Book book) {
+        append(encode(OP_PUT, key, book));
+        store(key, book);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void putAll(List<Book> batch) {
+        List<byte[]> records = new ArrayList<>(batch.size());
+        for (Book book : batch) {
+            records.add(encode(OP_PUT, book.getId(), book));
+        }
+        if (journal != null) {
+            journal.appendAll(JOURNAL_STREAM, records);
+        } else {
+            try {
+                log.append(records);
+            } catch (IOException e) {
+                System.err.println("Error writing to file: " + e.getMessage());
+            }
+        }
+        for (Book book : batch) {
+            store(book.getId(), book);
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized boolean delete(int key) {
+        if (!books.containsKey(key)) {
+            return false;
+        }
+        append(encode(OP_DELETE, key, null));
+        books.remove(key);
+        compactIfNeeded();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean adjustQuantity(int key, int delta) {
+        Book book = books.get(key);
+        if (book == null || book.getQuantity() + delta < 0) {
+            return false;
+        }
+        Book updated = new Book(book);
+        updated.setQuantity(book.getQuantity() + delta);
+        put(key, updated);
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return books.size();
+    }
+
+    /**
+     * Folds the log into a fresh snapshot and empties the log.
+     * The snapshot is written to a temporary file and atomically renamed, so a crash leaves either
+     * the old snapshot with its log or the new snapshot (whose generation marks the old log as stale).
+     */
+    public void compact() {
+        if (journal != null) {
+            // Not under this store's monitor: the journal waits for open transactions, which may need it
+            journal.compact();
+            return;
+        }
+        synchronized (this) {
+            try {
+                long newGeneration = generation + 1;
+                writeSnapshot(newGeneration);
+                log.reset(newGeneration);
+            } catch (IOException e) {
+                System.err.println("Error compacting " + filename + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Closes the store's own log; a journaled store is snapshotted when its journal is closed. */
+    @Override
+    public synchronized void close() {
+        if (log == null) {
+            return;
+        }
+        try {
+            if (log.records() > 0) {
+                compact();
+            }
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + filename + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized long generation() {
+        return generation;
+    }
+
+    @Override
+    public synchronized void writeSnapshot(long newGeneration) throws IOException {
+        BookCodec.writeSnapshot(Paths.get(filename), newGeneration, books.size(),
+                sink -> books.forEach((key, book) -> sink.accept(book)));
+        generation = newGeneration;
+        renumber();
+        if (journal != null) {
+            Files.deleteIfExists(ownLogPath());
+        }
+    }
+
+    /** Applies a logged change during replay. */
+    @Override
+    public synchronized void apply(ByteBuffer record) {
+        byte op = record.get();
+        int key = record.getInt();
+        if (op == OP_PUT) {
+            store(key, BookCodec.read(record));
+        } else if (op == OP_DELETE) {
+            books.remove(key);
+        }
+    }
+
+    private Path ownLogPath() {
+        return Paths.get(filename + ".log");
+    }
+
+    private void compactIfNeeded() {
+        if (log != null && log.records() >= Math.max(COMPACT_MIN_RECORDS, books.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Snapshots store only the list of books, so sequential keys are reassigned in order when one is loaded.
+     * Renumbering right after compaction gives entries the same keys they will have after a reload.
+     */
+    private void renumber() {
+        if (keyedById) {
+            return;
+        }
+        List<Book> values = books.values();
+        books.clear();
+        nextKey = 1;
+        for (Book book : values) {
+            store(nextKey, book);
+        }
+    }
+
+    private void loadSnapshot() throws IOException {
+        generation = BookCodec.readSnapshot(Paths.get(filename),
+                book -> store(keyedById ? book.getId() : nextKey, book));
+    }
+
+    private void store(int key, Book book) {
+        books.put(key, book);
+        if (key >= nextKey) {
+            nextKey = key + 1;
+        }
+    }
+
+    private void append(byte[] record) {
+        if (journal != null) {
+            journal.append(JOURNAL_STREAM, record);
+            return;
+        }
+        try {
+            log.append(record);
+        } catch (IOException e) {
+            System.err.println("Error writing to file: " + e.getMessage());
+        }
+    }
+
+    /** Encodes a log record: the op, the key, and for a put the book. */
+    static byte[] encode(byte op, int key, Book book) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(op);
+            out.writeInt(key);
+            if (book != null) {
+                BookCodec.write(out, book);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
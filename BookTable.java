@@ -0,0 +1,90 @@
+import java.util.List;
+
+/**
+ * The in-memory table of books behind a BookStore, keyed by the store's key (the book id, or an
+ * insertion sequence). The store handles persistence; the table only decides how books are held.
+ */
+interface BookTable {
+
+    /** Returns the book stored under the key, or null. */
+    Book get(int key);
+
+    boolean containsKey(int key);
+
+    /** Stores the book under the key, replacing any book already there. */
+    void put(int key, Book book);
+
+    /** Removes the key, returning false if it was absent. */
+    boolean remove(int key);
+
+    int size();
+
+    void clear();
+
+    /** Returns the books as a list the caller may keep. */
+    List<Book> values();
+
+    /**
+     * Calls the consumer for each entry. The book may be a view that is only valid during the call.
+     */
+    void forEach(IntObjectMap.EntryConsumer<? super Book> consumer);
+
+    /** The sum of the quantities of all books. */
+    long totalQuantity();
+
+    /** Holds the books as ordinary objects in an insertion-ordered map. */
+    static BookTable onHeap() {
+        return new Heap();
+    }
+
+    final class Heap implements BookTable {
+        private final IntObjectMap<Book> books = new IntObjectMap<>();
+
+        @Override
+        public Book get(int key) {
+            return books.get(key);
+        }
+
+        @Override
+        public boolean containsKey(int key) {
+            return books.containsKey(key);
+        }
+
+        @Override
+        public void put(int key, Book book) {
+            books.put(key, book);
+        }
+
+        @Override
+        public boolean remove(int key) {
+            return books.remove(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return books.size();
+        }
+
+        @Override
+        public void clear() {
+            books.clear();
+        }
+
+        @Override
+        public List<Book> values() {
+            return books.values();
+        }
+
+        @Override
+        public void forEach(IntObjectMap.EntryConsumer<? super Book> consumer) {
+            books.forEach(consumer);
+        }
+
+        @Override
+        public long totalQuantity() {
+            long[] total = {0};
+            books.forEach((key, book) -> total[0] += book.getQuantity());
+            return total[0];
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collector;
+
+/**
+ * Inventory totals per category and per rack, kept up to date as books are added, edited, deleted,
+ * issued and returned, so the inventory and rack reports are a read of a few dozen counters rather
+ * than a scan of the catalog.
+ *
+ * The totals are first computed from the catalog a chunk of books at a time, so the scan's heap use
+ * does not grow with the catalog. Each chunk is summed with a parallel stream: each fork/join worker
+ * sums its share into a private set of totals and the sets are merged, so the scan scales with the
+ * cores. From then on the library applies each change as a delta.
+ *
+ * Values are kept in whole cents so that adding and later removing a book leaves no rounding drift.
+ *
+ * All public methods are synchronized.
+ */
+class CatalogAggregates {
+
+    private final Map<String, long[]> categories = new TreeMap<>(); // titles, copies, value in cents
+    private final Map<Integer, long[]> racks = new TreeMap<>(); // copies on the shelf, copies on loan
+
+    /**
+     * Adds one chunk of the catalog to the totals, summing it in parallel.
+     * @param loansByBook the number of copies of each book lent out
+     */
+    public synchronized void addAll(List<Book> books, IntIntMap loansByBook) {
+        merge(books.parallelStream().collect(Collector.of(CatalogAggregates::new,
+                (totals, book) -> totals.count(book, loansByBook.get(book.getId(), 0), 1),
+                CatalogAggregates::merge)));
+    }
+
+    /** Counts a book added to the catalog that has the given number of copies lent out. */
+    public synchronized void add(Book book, int onLoan) {
+        count(book, onLoan, 1);
+    }
+
+    /** Uncounts a book leaving the catalog (or about to be replaced by a new version). */
+    public synchronized void remove(Book book, int onLoan) {
+        count(book, onLoan, -1);
+    }
+
+    /** Moves one copy of the book from the shelf to loan. */
+    public synchronized void lend(Book book) {
+        move(book, -1);
+    }
+
+    /** Moves one copy of the book from loan back to the shelf. */
+    public synchronized void giveBack(Book book) {
+        move(book, 1);
+    }
+
+    /** Copies on the shelf and their value per category, by category name. */
+    public synchronized List<Reports.CategoryValue> categories() {
+        List<Reports.CategoryValue> rows = new ArrayList<>(categories.size());
+        categories.forEach((category, totals) ->
+                rows.add(new Reports.CategoryValue(category, totals[0], totals[1], totals[2])));
+        return rows;
+    }
+
+    /** Copies on the shelf and on loan per rack, by rack number. */
+    public synchronized List<Reports.RackUsage> racks() {
+        List<Reports.RackUsage> rows = new ArrayList<>(racks.size());
+        racks.forEach((rackNo, totals) -> rows.add(new Reports.RackUsage(rackNo, totals[0], totals[1])));
+        return rows;
+    }
+
+    private void count(Book book, int onLoan, int sign) {
+        long[] category = categories.computeIfAbsent(book.getCategory(), c -> new long[3]);
+        category[0] += sign;
+        category[1] += sign * (long) book.getQuantity();
+        category[2] += sign * cents(book) * book.getQuantity();
+        long[] rack = racks.computeIfAbsent(book.getRackNo(), r -> new long[2]);
+        rack[0] += sign * (long) book.getQuantity();
+        rack[1] += sign * (long) onLoan;
+        if (category[0] == 0) {
+            categories.remove(book.getCategory());
+        }
+        if (rack[0] == 0 && rack[1] == 0) {
+            racks.remove(book.getRackNo());
+        }
+    }
+
+    private void move(Book book, int toShelf) {
+        long[] category = categories.get(book.getCategory());
+        long[] rack = racks.get(book.getRackNo());
+        if (category == null || rack == null) {
+            return;
+        }
+        category[1] += toShelf;
+        category[2] += toShelf * cents(book);
+        rack[0] += toShelf;
+        rack[1] -= toShelf;
+    }
+
+    private CatalogAggregates merge(CatalogAggregates other) {
+        other.categories.forEach((category, totals) -> add(categories.computeIfAbsent(category, c -> new long[3]), totals));
+        other.racks.forEach((rackNo, totals) -> add(racks.computeIfAbsent(rackNo, r -> new long[2]), totals));
+        return this;
+    }
+
+    private static void add(long[] into, long[] totals) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] += totals[i];
+        }
+    }
+
+    private static long cents(Book book) {
+        return Math.round(book.getPrice() * 100);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * One change to the library, numbered in the order the changes were made: a book added, updated or
+ * deleted, or a copy issued or returned. Issue and return events carry the book as it is after the
+ * change, so a replica stores it as given rather than adjusting its own stock.
+ *
+ * Events travel as one tab-separated row: sequence, type, book id, loan id, issued day, due day,
+ * borrower, and the book as a JSON object (see BookFormat), with empty fields where they do not apply.
+ */
+final class ChangeEvent {
+
+    enum Type { ADD, UPDATE, DELETE, ISSUE, RETURN }
+
+    private static final int FIELDS = 8;
+
+    private final long sequence;
+    private final Type type;
+    private final int bookId;
+    private final Book book; // after the change; null for DELETE, and for a RETURN of a deleted book
+    private final int loanId;
+    private final int issuedDay;
+    private final int dueDay;
+    private final String borrower;
+
+    private ChangeEvent(long sequence, Type type, int bookId, Book book, int loanId, int issuedDay, int dueDay, String borrower) {
+        this.sequence = sequence;
+        this.type = type;
+        this.bookId = bookId;
+        this.book = book;
+        this.loanId = loanId;
+        this.issuedDay = issuedDay;
+        this.dueDay = dueDay;
+        this.borrower = borrower;
+    }
+
+    /** An ADD or UPDATE of the book. */
+    static ChangeEvent stored(long sequence, Type type, Book book) {
+        return new ChangeEvent(sequence, type, book.getId(), new Book(book), 0, 0, 0, null);
+    }
+
+    static ChangeEvent deleted(long sequence, int bookId) {
+        return new ChangeEvent(sequence, Type.DELETE, bookId, null, 0, 0, 0, null);
+    }
+
+    /** A new loan, with the book as it is after the copy was taken (null in a snapshot, which sends the books separately). */
+    static ChangeEvent issued(long sequence, Loan loan, String borrower, Book book) {
+        return new ChangeEvent(sequence, Type.ISSUE, loan.getBookId(), book == null ? null : new Book(book),
+                loan.getLoanId(), loan.getIssuedDay(), loan.getDueDay(), borrower);
+    }
+
+    /** A finished loan, with the book as it is after the copy came back, or null if it has left the catalog. */
+    static ChangeEvent returned(long sequence, Loan loan, Book book) {
+        return new ChangeEvent(sequence, Type.RETURN, loan.getBookId(), book == null ? null : new Book(book),
+                loan.getLoanId(), 0, 0, null);
+    }
+
+    public long getSequence() { return sequence; }
+    public Type getType() { return type; }
+    public int getBookId() { return bookId; }
+    public Book getBook() { return book == null ? null : new Book(book); }
+    public int getLoanId() { return loanId; }
+    public int getIssuedDay() { return issuedDay; }
+    public int getDueDay() { return dueDay; }
+    public String getBorrower() { return borrower; }
+
+    String toRow() {
+        return sequence + "\t" + type + "\t" + bookId + "\t" + loanId + "\t" + issuedDay + "\t" + dueDay + "\t"
+                + (borrower == null ? "" : borrower.replaceAll("[\\t\\r\\n]", " ")) + "\t"
+                + (book == null ? "" : BookFormat.JSON_LINES.format(book));
+    }
+
+    /** Parses a row written by toRow. Throws IllegalArgumentException if it is malformed. */
+    static ChangeEvent parse(String row) {
+        String[] fields = row.split("\t", -1);
+        if (fields.length != FIELDS) {
+            throw new IllegalArgumentException("Expected " + FIELDS + " fields in a change but found " + fields.length);
+        }
+        try {
+            return new ChangeEvent(Long.parseLong(fields[0]), Type.valueOf(fields[1]), Integer.parseInt(fields[2]),
+                    fields[7].isEmpty() ? null : BookFormat.JSON_LINES.parse(fields[7]), Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), fields[6].isEmpty() ? null : fields[6]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in change: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * The library's changes in the order they were made, for followers keeping a replica in step.
+ *
+ * Each change gets the next sequence number and is kept in a ring of the most recent ones; a follower
+ * asks for the changes after the last one it applied, waiting for new ones if it is caught up. The feed
+ * lives in memory only, under an epoch picked when the library opens, so a follower that sees another
+ * epoch (the leader restarted) or has fallen further behind than the ring holds starts over from a
+ * Snapshot.
+ *
+ * All methods are synchronized.
+ */
+final class ChangeFeed {
+
+    /** The number of recent changes kept for followers that are behind. */
+    static final int DEFAULT_CAPACITY = 100_000;
+
+    private final long epoch = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+    private final ChangeEvent[] ring;
+    private long sequence;
+
+    /**
+     * A copy of the library as of one sequence number: an ADD for every book, then an ISSUE for every
+     * loan out, and how often each book and each student has ever borrowed, which the replica takes
+     * as they are rather than counting its ISSUEs.
+     *
+     * As rows, the events come first, then "ISSUES BOOK id count" and "ISSUES STUDENT count name"
+     * rows, tab-separated.
+     */
+    static final class Snapshot {
+        private static final String ISSUES = "ISSUES";
+        private static final String BOOK = "BOOK";
+        private static final String STUDENT = "STUDENT";
+
+        private final long epoch;
+        private final long sequence;
+        private final List<ChangeEvent> events;
+        private final IntIntMap bookIssues;
+        private final Map<String, Integer> studentIssues;
+
+        Snapshot(long epoch, long sequence, List<ChangeEvent> events, IntIntMap bookIssues, Map<String, Integer> studentIssues) {
+            this.epoch = epoch;
+            this.sequence = sequence;
+            this.events = events;
+            this.bookIssues = bookIssues;
+            this.studentIssues = studentIssues;
+        }
+
+        public long getEpoch() { return epoch; }
+        public long getSequence() { return sequence; }
+        public List<ChangeEvent> getEvents() { return events; }
+        public IntIntMap getBookIssues() { return bookIssues; }
+        public Map<String, Integer> getStudentIssues() { return studentIssues; }
+
+        List<String> toRows() {
+            List<String> rows = new ArrayList<>(events.size() + bookIssues.size() + studentIssues.size());
+            for (ChangeEvent event : events) {
+                rows.add(event.toRow());
+            }
+            bookIssues.forEach((bookId, count) -> rows.add(ISSUES + "\t" + BOOK + "\t" + bookId + "\t" + count));
+            studentIssues.forEach((name, count) -> rows.add(ISSUES + "\t" + STUDENT + "\t" + count + "\t"
+                    + name.replaceAll("[\\t\\r\\n]", " ")));
+            return rows;
+        }
+
+        /** Parses rows written by toRows. Throws IllegalArgumentException if one is malformed. */
+        static Snapshot parse(long epoch, long sequence, List<String> rows) {
+            List<ChangeEvent> events = new ArrayList<>(rows.size());
+            IntIntMap bookIssues = new IntIntMap();
+            Map<String, Integer> studentIssues = new LinkedHashMap<>();
+            for (String row : rows) {
+                if (!row.startsWith(ISSUES + "\t")) {
+                    events.add(ChangeEvent.parse(row));
+                    continue;
+                }
+                String[] fields = row.split("\t", 4);
+                try {
+                    if (fields.length == 4 && fields[1].equals(BOOK)) {
+                        bookIssues.put(Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                    } else if (fields.length == 4 && fields[1].equals(STUDENT)) {
+                        studentIssues.put(fields[3], Integer.parseInt(fields[2]));
+                    } else {
+                        throw new IllegalArgumentException("Malformed issue count: " + row);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number in issue count: " + e.getMessage());
+                }
+            }
+            return new Snapshot(epoch, sequence, events, bookIssues, studentIssues);
+        }
+    }
+
+    ChangeFeed(int capacity) {
+        this.ring = new ChangeEvent[capacity];
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    /** The sequence number of the latest change, 0 before the first. */
+    public synchronized long lastSequence() {
+        return sequence;
+    }
+
+    /** Numbers the event made from the next sequence number, keeps it, and wakes the followers waiting for it. */
+    public synchronized void publish(LongFunction<ChangeEvent> event) {
+        sequence++;
+        ring[(int) (sequence % ring.length)] = event.apply(sequence);
+        notifyAll();
+    }
+
+    /**
+     * Returns up to max changes after the given sequence number, oldest first, waiting up to waitMillis
+     * for one if there are none yet (an empty list if none came). Throws IllegalArgumentException if the
+     * position is from another epoch or the changes after it are no longer kept.
+     */
+    public synchronized List<ChangeEvent> after(long epoch, long after, int max, long waitMillis) throws InterruptedException {
+        if (epoch != this.epoch || after < 0 || after > sequence) {
+            throw new IllegalArgumentException("Unknown position " + epoch + ":" + after + "; take a new snapshot");
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        for (long left = deadline - System.nanoTime(); sequence == after && left > 0; left = deadline - System.nanoTime()) {
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        if (after < sequence - ring.length) {
+            throw new IllegalArgumentException("Changes after " + after + " are no longer kept; take a new snapshot");
+        }
+        List<ChangeEvent> events = new ArrayList<>();
+        for (long next = after + 1; next <= sequence && events.size() < max; next++) {
+            events.add(ring[(int) (next % ring.length)]);
+        }
+        return events;
+    }
+}
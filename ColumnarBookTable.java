@@ -0,0 +1,241 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A book table that keeps each field in its own off-heap column, for catalogs of millions of books.
+ *
+ * Row i of every column holds one book: primitive columns for the numbers, and handles into a
+ * StringPool for the name and author (so repeated authors are stored once). Each row holds a
+ * reference to its strings, released when the row is changed or removed, so renamed and deleted
+ * books do not leave their strings behind. Issue details are not kept; loans live in LoanStore.
+ * The heap holds no object per book, only the key-to-row map, so a large catalog adds almost nothing
+ * for the garbage collector to trace. Rows are kept dense: removing a row moves the last one into
+ * its place.
+ *
+ * get materializes an ordinary Book; forEach hands out a flyweight view that reads the columns in
+ * place, and aggregates such as totalQuantity scan a single column.
+ *
+ * Not thread-safe; BookStore synchronizes access.
+ */
+class ColumnarBookTable implements BookTable {
+
+    private final IntIntMap rowsByKey = new IntIntMap();
+    private final StringPool strings = new StringPool();
+    private int rows;
+    private int capacity;
+
+    private IntBuffer keys;
+    private IntBuffer ids;
+    private IntBuffer quantities;
+    private DoubleBuffer prices;
+    private IntBuffer rackNos;
+    private IntBuffer categories; // index into Book.CATEGORIES, or -(string handle) - 1 for any other
+    private IntBuffer names;
+    private IntBuffer authors;
+
+    ColumnarBookTable() {
+        allocate(1024);
+    }
+
+    @Override
+    public Book get(int key) {
+        int row = rowsByKey.get(key, -1);
+        return row < 0 ? null : materialize(row);
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return rowsByKey.containsKey(key);
+    }
+
+    @Override
+    public void put(int key, Book book) {
+        // Intern before releasing, so strings the book keeps are never freed in between
+        int name = strings.intern(book.getName());
+        int author = strings.intern(book.getAuthor());
+        int category = categoryCode(book.getCategory());
+        int row = rowsByKey.get(key, -1);
+        if (row < 0) {
+            if (rows == capacity) {
+                allocate(capacity * 2);
+            }
+            row = rows++;
+            rowsByKey.put(key, row);
+        } else {
+            releaseStrings(row);
+        }
+        keys.put(row, key);
+        ids.put(row, book.getId());
+        quantities.put(row, book.getQuantity());
+        prices.put(row, book.getPrice());
+        rackNos.put(row, book.getRackNo());
+        categories.put(row, category);
+        names.put(row, name);
+        authors.put(row, author);
+    }
+
+    @Override
+    public boolean remove(int key) {
+        int row = rowsByKey.remove(key, -1);
+        if (row < 0) {
+            return false;
+        }
+        releaseStrings(row);
+        int last = --rows;
+        if (row != last) {
+            copyRow(last, row);
+            rowsByKey.put(keys.get(row), row);
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public void clear() {
+        rowsByKey.clear();
+        strings.clear();
+        rows = 0;
+    }
+
+    @Override
+    public List<Book> values() {
+        List<Book> books = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            books.add(materialize(row));
+        }
+        return books;
+    }
+
+    @Override
+    public void forEach(IntObjectMap.EntryConsumer<? super Book> consumer) {
+        View view = new View();
+        for (int row = 0; row < rows; row++) {
+            view.row = row;
+            consumer.accept(keys.get(row), view);
+        }
+    }
+
+    /** Sums the quantity column; a plain counted loop over one buffer, which the JIT can unroll and vectorize. */
+    @Override
+    public long totalQuantity() {
+        IntBuffer column = quantities;
+        long total = 0;
+        for (int row = 0; row < rows; row++) {
+            total += column.get(row);
+        }
+        return total;
+    }
+
+    /** Distinct strings in use and their off-heap bytes, for diagnostics. */
+    String poolStats() {
+        return strings.size() + " strings in " + strings.bytesUsed() / 1024 + " KB";
+    }
+
+    private Book materialize(int row) {
+        return new Book(ids.get(row), strings.get(names.get(row)), strings.get(authors.get(row)),
+                quantities.get(row), prices.get(row), rackNos.get(row), category(row));
+    }
+
+    private void releaseStrings(int row) {
+        strings.release(names.get(row));
+        strings.release(authors.get(row));
+        int code = categories.get(row);
+        if (code < 0) {
+            strings.release(-code - 1);
+        }
+    }
+
+    private String category(int row) {
+        int code = categories.get(row);
+        return code >= 0 ? Book.CATEGORIES[code] : strings.get(-code - 1);
+    }
+
+    private int categoryCode(String category) {
+        for (int i = 0; i < Book.CATEGORIES.length; i++) {
+            if (Book.CATEGORIES[i].equals(category)) {
+                return i;
+            }
+        }
+        return -strings.intern(category) - 1;
+    }
+
+    private void copyRow(int from, int to) {
+        keys.put(to, keys.get(from));
+        ids.put(to, ids.get(from));
+        quantities.put(to, quantities.get(from));
+        prices.put(to, prices.get(from));
+        rackNos.put(to, rackNos.get(from));
+        categories.put(to, categories.get(from));
+        names.put(to, names.get(from));
+        authors.put(to, authors.get(from));
+    }
+
+    /** Allocates every column with the new capacity, copying the rows in use. */
+    private void allocate(int newCapacity) {
+        keys = grow(keys, newCapacity);
+        ids = grow(ids, newCapacity);
+        quantities = grow(quantities, newCapacity);
+        rackNos = grow(rackNos, newCapacity);
+        categories = grow(categories, newCapacity);
+        names = grow(names, newCapacity);
+        authors = grow(authors, newCapacity);
+        DoubleBuffer largerPrices = ByteBuffer.allocateDirect(newCapacity * Double.BYTES)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        if (prices != null) {
+            largerPrices.put(0, prices, 0, rows);
+        }
+        prices = largerPrices;
+        capacity = newCapacity;
+    }
+
+    private IntBuffer grow(IntBuffer column, int newCapacity) {
+        IntBuffer larger = StringPool.newInts(newCapacity);
+        if (column != null) {
+            larger.put(0, column, 0, rows);
+        }
+        return larger;
+    }
+
+    /**
+     * A book read from the columns in place, moved from row to row by forEach. It must not be kept or
+     * changed; copy it with new Book(view) to do either.
+     */
+    private final class View extends Book {
+        private static final long serialVersionUID = 1L;
+
+        int row;
+
+        View() {
+            super(0, null, null, 0, 0, 0, null);
+        }
+
+        @Override public int getId() { return ids.get(row); }
+        @Override public String getName() { return strings.get(names.get(row)); }
+        @Override public String getAuthor() { return strings.get(authors.get(row)); }
+        @Override public int getQuantity() { return quantities.get(row); }
+        @Override public double getPrice() { return prices.get(row); }
+        @Override public int getRackNo() { return rackNos.get(row); }
+        @Override public String getCategory() { return category(row); }
+
+        @Override public void setName(String name) { throw readOnly(); }
+        @Override public void setAuthor(String author) { throw readOnly(); }
+        @Override public void setQuantity(int quantity) { throw readOnly(); }
+        @Override public void setPrice(double price) { throw readOnly(); }
+        @Override public void setRackNo(int rackNo) { throw readOnly(); }
+        @Override public void issueBook(String studentName, int returnTimeDays) { throw readOnly(); }
+        @Override void setIssueDetails(String studentName, LocalDate issuedDate, LocalDate dueDate) { throw readOnly(); }
+
+        private UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("A columnar book view is read-only; copy it to change it");
+        }
+    }
+}
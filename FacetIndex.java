@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes on category, rack number and price, combined with bitset operations.
+ *
+ * Each indexed book gets a dense ordinal (reused after deletion) so that sets of books can be held as
+ * bitsets regardless of how sparse or negative the ids are. Categories keep a bitset each; racks and
+ * prices map to sorted ordinal sets, prices in a sorted map so ranges are a sub-map walk.
+ */
+class FacetIndex {
+
+    private final IntIntMap ordinalById = new IntIntMap();
+    private int[] idByOrdinal = new int[16];
+    private int ordinalCount;
+    private int[] freeOrdinals = new int[16];
+    private int freeCount;
+
+    private final Map<String, BitSet> byCategory = new HashMap<>();
+    private final TreeMap<Integer, SortedIntSet> byRack = new TreeMap<>();
+    private final TreeMap<Double, SortedIntSet> byPrice = new TreeMap<>();
+
+    public void add(Book book) {
+        int ordinal = allocateOrdinal(book.getId());
+        byCategory.computeIfAbsent(book.getCategory(), c -> new BitSet()).set(ordinal);
+        byRack.computeIfAbsent(book.getRackNo(), r -> new SortedIntSet()).add(ordinal);
+        byPrice.computeIfAbsent(book.getPrice(), p -> new SortedIntSet()).add(ordinal);
+    }
+
+    public void remove(Book book) {
+        int ordinal = ordinalById.remove(book.getId(), -1);
+        if (ordinal < 0) {
+            return;
+        }
+        BitSet category = byCategory.get(book.getCategory());
+        if (category != null) {
+            category.clear(ordinal);
+        }
+        removeFrom(byRack, book.getRackNo(), ordinal);
+        removeFrom(byPrice, book.getPrice(), ordinal);
+        if (freeCount == freeOrdinals.length) {
+            freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        }
+        freeOrdinals[freeCount++] = ordinal;
+    }
+
+    /**
+     * Returns the ids of the books matching every criterion of the query, in ascending order.
+     */
+    public int[] query(BookQuery query) {
+        BitSet matches = match(query);
+        int[] ids = new int[matches.cardinality()];
+        int n = 0;
+        for (int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)) {
+            ids[n++] = idByOrdinal[ordinal];
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private BitSet match(BookQuery query) {
+        BitSet result = null;
+        if (query.getCategory() != null) {
+            BitSet category = byCategory.get(query.getCategory());
+            result = category == null ? new BitSet() : (BitSet) category.clone();
+        }
+        if (query.getRackNo() != null) {
+            result = and(result, toBitSet(byRack.get(query.getRackNo())));
+        }
+        if (query.hasPriceRange() && query.getMinPrice() > query.getMaxPrice()) {
+            return new BitSet();
+        }
+        if (query.hasPriceRange()) {
+            NavigableMap<Double, SortedIntSet> range = byPrice.subMap(
+                    query.getMinPrice(), true, query.getMaxPrice(), query.isMaxInclusive());
+            BitSet prices = new BitSet(ordinalCount);
+            for (SortedIntSet members : range.values()) {
+                members.forEach(prices::set);
+            }
+            result = and(result, prices);
+        }
+        if (result == null) {
+            // No criteria: every indexed book
+            result = new BitSet(ordinalCount);
+            result.set(0, ordinalCount);
+            for (int i = 0; i < freeCount; i++) {
+                result.clear(freeOrdinals[i]);
+            }
+        }
+        return result;
+    }
+
+    private static BitSet and(BitSet current, BitSet next) {
+        if (current == null) {
+            return next;
+        }
+        current.and(next);
+        return current;
+    }
+
+    private static BitSet toBitSet(SortedIntSet members) {
+        BitSet bits = new BitSet();
+        if (members != null) {
+            members.forEach(bits::set);
+        }
+        return bits;
+    }
+
+    private static <K> void removeFrom(Map<K, SortedIntSet> index, K key, int ordinal) {
+        SortedIntSet members = index.get(key);
+        if (members != null && members.remove(ordinal) && members.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private int allocateOrdinal(int id) {
+        int ordinal = ordinalById.get(id, -1);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+        if (freeCount > 0) {
+            ordinal = freeOrdinals[--freeCount];
+        } else {
+            if (ordinalCount == idByOrdinal.length) {
+                idByOrdinal = Arrays.copyOf(idByOrdinal, ordinalCount * 2);
+            }
+            ordinal = ordinalCount++;
+        }
+        idByOrdinal[ordinal] = id;
+        ordinalById.put(id, ordinal);
+        return ordinal;
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a local library in step with another one (the leader) over the LibraryServer protocol, so
+ * that read traffic can be spread over several processes.
+ *
+ * The follower copies the leader's SNAPSHOT into the local library, then long-polls CHANGES for the
+ * changes after the snapshot's sequence number and applies them in order. It starts over from a
+ * snapshot when the leader no longer has the changes it needs (it restarted, or the follower fell
+ * too far behind), and reconnects after a pause when the connection drops. Nothing about the
+ * position is saved, so a restarted follower also starts from a snapshot.
+ */
+class Follower implements Closeable {
+
+    private static final long WAIT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+    private static final long RETRY_MILLIS = 1_000;
+
+    private final LibraryService replica;
+    private final String host;
+    private final int port;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile Socket connection;
+    private volatile long epoch = -1; // -1 until a snapshot is copied
+    private volatile long sequence;
+
+    /** Starts following the leader served at host:port on a background thread. */
+    Follower(LibraryService replica, String host, int port) {
+        this.replica = replica;
+        this.host = host;
+        this.port = port;
+        this.thread = new Thread(this::run, "library-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** The sequence number of the last change applied, in the leader's current epoch. */
+    long sequence() {
+        return sequence;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Socket current = connection;
+        try {
+            if (current != null) {
+                current.close();
+            }
+            thread.join();
+        } catch (IOException e) {
+            System.err.println("Error closing connection to leader: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket socket = new Socket(host, port);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                connection = socket;
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                while (!closed) {
+                    if (epoch < 0) {
+                        copySnapshot(in, out);
+                    } else {
+                        applyChanges(in, out);
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Error following " + host + ":" + port + ": " + e.getMessage());
+                    pause();
+                }
+            } catch (RuntimeException e) {
+                if (!closed) {
+                    // A change that cannot be read or applied leaves the replica in doubt
+                    System.err.println("Error following " + host + ":" + port + ": " + e.getMessage()
+                            + "; starting over from a snapshot");
+                    epoch = -1;
+                    pause();
+                }
+            }
+        }
+    }
+
+    private void copySnapshot(BufferedReader in, BufferedWriter out) throws IOException {
+        List<String> rows = new ArrayList<>();
+        String[] status = request(in, out, "SNAPSHOT", rows);
+        if (status == null) {
+            pause();
+            return;
+        }
+        long snapshotEpoch = Long.parseLong(status[2]);
+        long snapshotSequence = Long.parseLong(status[3]);
+        ChangeFeed.Snapshot snapshot = ChangeFeed.Snapshot.parse(snapshotEpoch, snapshotSequence, rows);
+        int loans = 0;
+        for (ChangeEvent event : snapshot.getEvents()) {
+            if (event.getType() == ChangeEvent.Type.ISSUE) {
+                loans++;
+            }
+        }
+        replica.restoreSnapshot(snapshot);
+        sequence = snapshotSequence;
+        epoch = snapshotEpoch;
+        System.out.println("Copied " + (snapshot.getEvents().size() - loans) + " books and " + loans + " loans from " + host + ":" + port
+                + " as of change " + snapshotEpoch + ":" + snapshotSequence + ".");
+    }
+
+    private void applyChanges(BufferedReader in, BufferedWriter out) throws IOException {
+        List<String> rows = new ArrayList<>();
+        if (request(in, out, "CHANGES\t" + epoch + "\t" + sequence + "\t" + WAIT_MILLIS, rows) == null) {
+            epoch = -1;
+            return;
+        }
+        for (String row : rows) {
+            ChangeEvent change = ChangeEvent.parse(row);
+            if (change.getSequence() != sequence + 1) {
+                System.err.println("Error following " + host + ":" + port + ": expected change " + (sequence + 1)
+                        + " but got " + change.getSequence() + "; starting over from a snapshot");
+                epoch = -1;
+                return;
+            }
+            replica.applyChange(change);
+            sequence = change.getSequence();
+        }
+    }
+
+    /**
+     * Sends one request and collects the reply's rows. Returns the fields of the status line, or
+     * null if the leader answered with an error (which is reported).
+     */
+    private String[] request(BufferedReader in, BufferedWriter out, String command, List<String> rows) throws IOException {
+        out.write(command);
+        out.write('\n');
+        out.flush();
+        String status = in.readLine();
+        if (status == null) {
+            throw new IOException("Connection closed by the leader");
+        }
+        if (status.startsWith("ERR ")) {
+            System.err.println("Error from " + host + ":" + port + ": " + status.substring(4));
+            return null;
+        }
+        String[] fields = status.split(" ");
+        int count = Integer.parseInt(fields[1]);
+        for (int i = 0; i < count; i++) {
+            String row = in.readLine();
+            if (row == null) {
+                throw new IOException("Connection closed by the leader");
+            }
+            rows.add(row);
+        }
+        return fields;
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+import java.time.Instant;
+
+/**
+ * A student waiting for a copy of a title that is out of stock. Times are held as epoch milliseconds.
+ */
+final class Hold {
+
+    private final int holdId;
+    private final int bookId;
+    private final String borrower;
+    private final long placedMillis;
+
+    Hold(int holdId, int bookId, String borrower, long placedMillis) {
+        this.holdId = holdId;
+        this.bookId = bookId;
+        this.borrower = borrower;
+        this.placedMillis = placedMillis;
+    }
+
+    public int getHoldId() { return holdId; }
+    public int getBookId() { return bookId; }
+    public String getBorrower() { return borrower; }
+    public long getPlacedMillis() { return placedMillis; }
+
+    public Instant getPlacedAt() { return Instant.ofEpochMilli(placedMillis); }
+}
@@ -0,0 +1,452 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The waitlists of titles that are out of stock, persisted like LoanStore as a snapshot plus a
+ * write-ahead log (its own, or a shared Journal).
+ *
+ * Each title's waitlist is a ring of hold ids in the order the holds were placed, so placing a hold
+ * and taking the first one off the list for a returned copy are O(1). A cancelled hold is only
+ * dropped from the hold map; its id stays in the ring and is skipped when it reaches the front.
+ *
+ * Besides the holds waiting, the store totals per title how many holds were filled and how long they
+ * waited, for the waitlist report; the totals are kept in the snapshot.
+ *
+ * All public methods are synchronized; Library holds the title's book lock around each change, so
+ * the waitlist and the copies it is given stay in step.
+ *
+ * Snapshot layout: magic, version, generation, next hold id, the waiting holds in the order they were
+ * placed as (hold id, book id, placed millis, borrower), then the filled totals as (book id, count,
+ * total wait millis).
+ */
+class HoldStore implements Closeable, Journal.Party {
+
+    /** The stream number of hold records in a shared journal. */
+    static final byte JOURNAL_STREAM = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x4C4D5348; // "LMSH"
+    private static final short VERSION = 1;
+    private static final byte OP_PLACE = 1;
+    private static final byte OP_CANCEL = 2;
+    private static final byte OP_FILL = 3;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final String filename;
+    private final WriteAheadLog log; // null when logging to a journal
+    private final Journal journal;
+    private long generation;
+    private int nextHoldId = 1;
+
+    private final IntObjectMap<Hold> holds = new IntObjectMap<>();
+    private final IntObjectMap<Waitlist> waitlists = new IntObjectMap<>();
+    private final IntObjectMap<long[]> filledByBook = new IntObjectMap<>(); // book id, count, total wait millis
+
+    private HoldStore(String filename, Journal journal) throws IOException {
+        this.filename = filename;
+        this.journal = journal;
+        loadSnapshot(Paths.get(filename));
+        if (journal == null) {
+            this.log = new WriteAheadLog(ownLogPath());
+            if (log.generation() == generation) {
+                log.replay(this::apply);
+            } else {
+                // The snapshot was written but the log not yet reset when we last stopped; it is already folded in.
+                log.reset(generation);
+            }
+        } else {
+            this.log = null;
+            journal.register(JOURNAL_STREAM, this);
+        }
+    }
+
+    /** Opens (or creates) a hold store with a log of its own. */
+    static HoldStore open(String filename) {
+        return open(filename, null);
+    }
+
+    /**
+     * Opens (or creates) a hold store that logs to the shared journal.
+     * The journal's recover must be called once all its stores are open.
+     */
+    static HoldStore open(String filename, Journal journal) {
+        try {
+            return new HoldStore(filename, journal);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening " + filename, e);
+        }
+    }
+
+    /** Puts the borrower at the end of the title's waitlist. */
+    public synchronized Hold place(int bookId, String borrower, long nowMillis) {
+        Hold hold = new Hold(nextHoldId, bookId, borrower, nowMillis);
+        append(encodePlace(hold));
+        add(hold);
+        compactIfNeeded();
+        return hold;
+    }
+
+    /** Takes a hold off its waitlist, returning it, or null if there is no such hold waiting. */
+    public synchronized Hold cancel(int holdId) {
+        if (holds.get(holdId) == null) {
+            return null;
+        }
+        append(encodeCancel(holdId));
+        Hold hold = remove(holdId);
+        compactIfNeeded();
+        return hold;
+    }
+
+    /** Cancels every hold on the title, e.g. when it leaves the catalog. */
+    public synchronized List<Hold> cancelAll(int bookId) {
+        List<Hold> cancelled = waiting(bookId);
+        for (Hold hold : cancelled) {
+            append(encodeCancel(hold.getHoldId()));
+            remove(hold.getHoldId());
+        }
+        compactIfNeeded();
+        return cancelled;
+    }
+
+    /**
+     * Takes the first hold off the title's waitlist for a copy that has become available, counting its
+     * wait in the title's totals. Returns null if nobody is waiting.
+     */
+    public synchronized Hold fill(int bookId, long nowMillis) {
+        Hold first = first(bookId);
+        if (first == null) {
+            return null;
+        }
+        append(encodeFill(first.getHoldId(), nowMillis));
+        remove(first.getHoldId());
+        countFilled(first, nowMillis);
+        compactIfNeeded();
+        return first;
+    }
+
+    public synchronized Hold get(int holdId) {
+        return holds.get(holdId);
+    }
+
+    /** The holds waiting for the title, first in line first. */
+    public synchronized List<Hold> waiting(int bookId) {
+        List<Hold> result = new ArrayList<>();
+        Waitlist waitlist = waitlists.get(bookId);
+        if (waitlist != null) {
+            for (int i = 0; i < waitlist.size; i++) {
+                Hold hold = holds.get(waitlist.ids[(waitlist.head + i) % waitlist.ids.length]);
+                if (hold != null) {
+                    result.add(hold);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** The number of holds waiting for the title. */
+    public synchronized int waitingCount(int bookId) {
+        Waitlist waitlist = waitlists.get(bookId);
+        return waitlist == null ? 0 : waitlist.waiting;
+    }
+
+    /**
+     * Returns, for every title with holds waiting or filled, five parallel arrays: the book ids, the
+     * holds waiting, how long the first has waited (millis), the holds filled, and their total wait
+     * (millis). Titles deleted since are included.
+     */
+    public synchronized long[][] queueTotals(long nowMillis) {
+        List<Integer> bookIds = new ArrayList<>();
+        waitlists.forEach((bookId, waitlist) -> bookIds.add(bookId));
+        filledByBook.forEach((bookId, totals) -> {
+            if (waitlists.get(bookId) == null) {
+                bookIds.add(bookId);
+            }
+        });
+        long[][] totals = new long[5][bookIds.size()];
+        for (int i = 0; i < bookIds.size(); i++) {
+            int bookId = bookIds.get(i);
+            Hold first = first(bookId);
+            long[] filled = filledByBook.get(bookId);
+            totals[0][i] = bookId;
+            totals[1][i] = waitingCount(bookId);
+            totals[2][i] = first == null ? 0 : Math.max(0, nowMillis - first.getPlacedMillis());
+            totals[3][i] = filled == null ? 0 : filled[1];
+            totals[4][i] = filled == null ? 0 : filled[2];
+        }
+        return totals;
+    }
+
+    public synchronized int size() {
+        return holds.size();
+    }
+
+    /**
+     * Folds the log into a fresh snapshot, written to a temporary file and atomically renamed.
+     */
+    public void compact() {
+        if (journal != null) {
+            // Not under this store's monitor: the journal waits for open transactions, which may need it
+            journal.compact();
+            return;
+        }
+        synchronized (this) {
+            try {
+                long newGeneration = generation + 1;
+                writeSnapshot(newGeneration);
+                log.reset(newGeneration);
+            } catch (IOException e) {
+                System.err.println("Error compacting " + filename + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Closes the store's own log; a journaled store is snapshotted when its journal is closed. */
+    @Override
+    public synchronized void close() {
+        if (log == null) {
+            return;
+        }
+        try {
+            if (log.records() > 0) {
+                compact();
+            }
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /** The first hold still waiting for the title, dropping cancelled ids from the front of the ring. */
+    private Hold first(int bookId) {
+        Waitlist waitlist = waitlists.get(bookId);
+        if (waitlist == null) {
+            return null;
+        }
+        while (waitlist.size > 0) {
+            Hold hold = holds.get(waitlist.ids[waitlist.head]);
+            if (hold != null) {
+                return hold;
+            }
+            waitlist.poll();
+        }
+        return null;
+    }
+
+    private void add(Hold hold) {
+        holds.put(hold.getHoldId(), hold);
+        Waitlist waitlist = waitlists.get(hold.getBookId());
+        if (waitlist == null) {
+            waitlist = new Waitlist();
+            waitlists.put(hold.getBookId(), waitlist);
+        }
+        waitlist.add(hold.getHoldId());
+        waitlist.waiting++;
+        if (hold.getHoldId() >= nextHoldId) {
+            nextHoldId = hold.getHoldId() + 1;
+        }
+    }
+
+    private Hold remove(int holdId) {
+        Hold hold = holds.remove(holdId);
+        if (hold == null) {
+            return null;
+        }
+        Waitlist waitlist = waitlists.get(hold.getBookId());
+        if (--waitlist.waiting == 0) {
+            // Only cancelled ids are left in the ring
+            waitlists.remove(hold.getBookId());
+        }
+        return hold;
+    }
+
+    private void countFilled(Hold hold, long filledMillis) {
+        long[] totals = filledByBook.get(hold.getBookId());
+        if (totals == null) {
+            totals = new long[] {hold.getBookId(), 0, 0};
+            filledByBook.put(hold.getBookId(), totals);
+        }
+        totals[1]++;
+        totals[2] += Math.max(0, filledMillis - hold.getPlacedMillis());
+    }
+
+    private void compactIfNeeded() {
+        if (log != null && log.records() >= Math.max(COMPACT_MIN_RECORDS, holds.size())) {
+            compact();
+        }
+    }
+
+    private Path ownLogPath() {
+        return Paths.get(filename + ".log");
+    }
+
+    private void append(byte[] record) {
+        if (journal != null) {
+            journal.append(JOURNAL_STREAM, record);
+            return;
+        }
+        try {
+            log.append(record);
+        } catch (IOException e) {
+            System.err.println("Error writing to file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /** Applies a logged change during replay. */
+    @Override
+    public synchronized void apply(ByteBuffer record) {
+        byte op = record.get();
+        if (op == OP_PLACE) {
+            Hold hold = readHold(record);
+            if (holds.get(hold.getHoldId()) == null) {
+                // A snapshot may already hold it; adding it again would queue it twice
+                add(hold);
+            }
+        } else if (op == OP_CANCEL) {
+            remove(record.getInt());
+        } else if (op == OP_FILL) {
+            Hold hold = remove(record.getInt());
+            if (hold != null) {
+                countFilled(hold, record.getLong());
+            }
+        }
+    }
+
+    private static Hold readHold(ByteBuffer in) {
+        int holdId = in.getInt();
+        int bookId = in.getInt();
+        long placedMillis = in.getLong();
+        return new Hold(holdId, bookId, BookCodec.readString(in), placedMillis);
+    }
+
+    private static void writeHold(DataOutputStream out, Hold hold) throws IOException {
+        out.writeInt(hold.getHoldId());
+        out.writeInt(hold.getBookId());
+        out.writeLong(hold.getPlacedMillis());
+        BookCodec.writeString(out, hold.getBorrower());
+    }
+
+    private static byte[] encodePlace(Hold hold) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(OP_PLACE);
+            writeHold(out, hold);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeCancel(int holdId) {
+        return ByteBuffer.allocate(5).put(OP_CANCEL).putInt(holdId).array();
+    }
+
+    private static byte[] encodeFill(int holdId, long filledMillis) {
+        return ByteBuffer.allocate(13).put(OP_FILL).putInt(holdId).putLong(filledMillis).array();
+    }
+
+    @Override
+    public synchronized void writeSnapshot(long newGeneration) throws IOException {
+        long start = Metrics.start();
+        Path target = Paths.get(filename);
+        Path temp = Paths.get(filename + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(newGeneration);
+            out.writeInt(nextHoldId);
+            out.writeInt(holds.size());
+            for (Hold hold : holds.values()) {
+                writeHold(out, hold);
+            }
+            out.writeInt(filledByBook.size());
+            for (long[] totals : filledByBook.values()) {
+                out.writeInt((int) totals[0]);
+                out.writeLong(totals[1]);
+                out.writeLong(totals[2]);
+            }
+            out.flush();
+            fos.getFD().sync();
+            Metrics.counter("storage." + target.getFileName() + ".bytesWritten").add(out.size());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.timer("storage." + target.getFileName() + ".snapshot").stop(start);
+        generation = newGeneration;
+    }
+
+    private void loadSnapshot(Path path) throws IOException {
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            return;
+        }
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                // keep reading
+            }
+            in.flip();
+        }
+        Metrics.counter("storage." + path.getFileName() + ".bytesRead").add(in.limit());
+        if (in.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a hold snapshot: " + path);
+        }
+        short version = in.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported hold snapshot version " + version + " in " + path);
+        }
+        generation = in.getLong();
+        nextHoldId = in.getInt();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            add(readHold(in));
+        }
+        int titles = in.getInt();
+        for (int i = 0; i < titles; i++) {
+            int bookId = in.getInt();
+            filledByBook.put(bookId, new long[] {bookId, in.getLong(), in.getLong()});
+        }
+    }
+
+    /** One title's hold ids in the order placed, as a growable ring; cancelled ids are skipped by first. */
+    private static final class Waitlist {
+        int[] ids = new int[4];
+        int head;
+        int size;
+        int waiting; // ids in the ring whose hold is still waiting
+
+        void add(int holdId) {
+            if (size == ids.length) {
+                int[] grown = new int[ids.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = ids[(head + i) % ids.length];
+                }
+                ids = grown;
+                head = 0;
+            }
+            ids[(head + size++) % ids.length] = holdId;
+        }
+
+        void poll() {
+            head = (head + 1) % ids.length;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Times every call to another LibraryService, one timer per operation (failures counted as errors).
+ * Only used when metrics are on, so an uninstrumented library pays nothing.
+ */
+class InstrumentedLibrary implements LibraryService {
+
+    private final LibraryService library;
+    private final Metrics.Timer findBook = Metrics.timer("library.findBook");
+    private final Metrics.Timer contains = Metrics.timer("library.contains");
+    private final Metrics.Timer listBooks = Metrics.timer("library.listBooks");
+    private final Metrics.Timer pageBooks = Metrics.timer("library.pageBooks");
+    private final Metrics.Timer addBook = Metrics.timer("library.addBook");
+    private final Metrics.Timer addBooks = Metrics.timer("library.addBooks");
+    private final Metrics.Timer forEachBook = Metrics.timer("library.forEachBook");
+    private final Metrics.Timer totalQuantity = Metrics.timer("library.totalQuantity");
+    private final Metrics.Timer updateBook = Metrics.timer("library.updateBook");
+    private final Metrics.Timer editBook = Metrics.timer("library.editBook");
+    private final Metrics.Timer deleteBook = Metrics.timer("library.deleteBook");
+    private final Metrics.Timer findByName = Metrics.timer("library.findByName");
+    private final Metrics.Timer search = Metrics.timer("library.search");
+    private final Metrics.Timer fuzzySearch = Metrics.timer("library.fuzzySearch");
+    private final Metrics.Timer browse = Metrics.timer("library.browse");
+    private final Metrics.Timer issueBook = Metrics.timer("library.issueBook");
+    private final Metrics.Timer returnBook = Metrics.timer("library.returnBook");
+    private final Metrics.Timer placeHold = Metrics.timer("library.placeHold");
+    private final Metrics.Timer cancelHold = Metrics.timer("library.cancelHold");
+    private final Metrics.Timer holdsForBook = Metrics.timer("library.holdsForBook");
+    private final Metrics.Timer holdQueues = Metrics.timer("library.holdQueues");
+    private final Metrics.Timer listLoans = Metrics.timer("library.listLoans");
+    private final Metrics.Timer pageLoans = Metrics.timer("library.pageLoans");
+    private final Metrics.Timer loansForBook = Metrics.timer("library.loansForBook");
+    private final Metrics.Timer dueWithin = Metrics.timer("library.dueWithin");
+    private final Metrics.Timer overdueLoans = Metrics.timer("library.overdueLoans");
+    private final Metrics.Timer sweepOverdue = Metrics.timer("library.sweepOverdue");
+    private final Metrics.Timer inventoryValue = Metrics.timer("library.inventoryValue");
+    private final Metrics.Timer rackUsage = Metrics.timer("library.rackUsage");
+    private final Metrics.Timer topBorrowed = Metrics.timer("library.topBorrowed");
+    private final Metrics.Timer topBorrowers = Metrics.timer("library.topBorrowers");
+    private final Metrics.Timer replicaSnapshot = Metrics.timer("library.replicaSnapshot");
+    private final Metrics.Timer changesAfter = Metrics.timer("library.changesAfter");
+    private final Metrics.Timer restoreSnapshot = Metrics.timer("library.restoreSnapshot");
+    private final Metrics.Timer applyChange = Metrics.timer("library.applyChange");
+    private final Metrics.Timer close = Metrics.timer("library.close");
+
+    InstrumentedLibrary(LibraryService library) {
+        this.library = library;
+    }
+
+    @Override
+    public Book findBook(int id) {
+        return timed(findBook, () -> library.findBook(id));
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return timed(contains, () -> library.contains(id));
+    }
+
+    @Override
+    public List<Book> listBooks() {
+        return timed(listBooks, library::listBooks);
+    }
+
+    @Override
+    public Page<Book> listBooks(BookOrder order, String pageToken, int pageSize) {
+        return timed(pageBooks, () -> library.listBooks(order, pageToken, pageSize));
+    }
+
+    @Override
+    public void addBook(Book book) {
+        timed(addBook, () -> {
+            library.addBook(book);
+            return null;
+        });
+    }
+
+    @Override
+    public int addBooks(List<Book> books) {
+        return timed(addBooks, () -> library.addBooks(books));
+    }
+
+    @Override
+    public void forEachBook(Consumer<? super Book> action) {
+        timed(forEachBook, () -> {
+            library.forEachBook(action);
+            return null;
+        });
+    }
+
+    @Override
+    public long totalQuantity() {
+        return timed(totalQuantity, library::totalQuantity);
+    }
+
+    @Override
+    public void updateBook(Book book) {
+        timed(updateBook, () -> {
+            library.updateBook(book);
+            return null;
+        });
+    }
+
+    @Override
+    public Book editBook(int id, Consumer<Book> changes) {
+        return timed(editBook, () -> library.editBook(id, changes));
+    }
+
+    @Override
+    public boolean deleteBook(int id) {
+        return timed(deleteBook, () -> library.deleteBook(id));
+    }
+
+    @Override
+    public List<Book> findByName(String name) {
+        return timed(findByName, () -> library.findByName(name));
+    }
+
+    @Override
+    public List<Book> search(String query) {
+        return timed(search, () -> library.search(query));
+    }
+
+    @Override
+    public List<Book> fuzzySearch(String query, int limit) {
+        return timed(fuzzySearch, () -> library.fuzzySearch(query, limit));
+    }
+
+    @Override
+    public List<Book> browse(BookQuery query) {
+        return timed(browse, () -> library.browse(query));
+    }
+
+    @Override
+    public Loan issueBook(int bookId, String borrower, int loanDays) {
+        return timed(issueBook, () -> library.issueBook(bookId, borrower, loanDays));
+    }
+
+    @Override
+    public Loan returnBook(int loanId) {
+        return timed(returnBook, () -> library.returnBook(loanId));
+    }
+
+    @Override
+    public Hold placeHold(int bookId, String borrower) {
+        return timed(placeHold, () -> library.placeHold(bookId, borrower));
+    }
+
+    @Override
+    public boolean cancelHold(int holdId) {
+        return timed(cancelHold, () -> library.cancelHold(holdId));
+    }
+
+    @Override
+    public List<Hold> holdsForBook(int bookId) {
+        return timed(holdsForBook, () -> library.holdsForBook(bookId));
+    }
+
+    @Override
+    public List<Reports.HoldQueue> holdQueues() {
+        return timed(holdQueues, library::holdQueues);
+    }
+
+    @Override
+    public List<Loan> listLoans() {
+        return timed(listLoans, library::listLoans);
+    }
+
+    @Override
+    public Page<Loan> listLoans(String pageToken, int pageSize) {
+        return timed(pageLoans, () -> library.listLoans(pageToken, pageSize));
+    }
+
+    @Override
+    public List<Loan> loansForBook(int bookId) {
+        return timed(loansForBook, () -> library.loansForBook(bookId));
+    }
+
+    @Override
+    public List<Loan> dueWithin(int days) {
+        return timed(dueWithin, () -> library.dueWithin(days));
+    }
+
+    @Override
+    public List<Loan> overdueLoans() {
+        return timed(overdueLoans, library::overdueLoans);
+    }
+
+    @Override
+    public List<Loan> sweepOverdue() {
+        return timed(sweepOverdue, library::sweepOverdue);
+    }
+
+    @Override
+    public String borrowerName(Loan loan) {
+        return library.borrowerName(loan);
+    }
+
+    @Override
+    public List<Reports.CategoryValue> inventoryValue() {
+        return timed(inventoryValue, library::inventoryValue);
+    }
+
+    @Override
+    public List<Reports.RackUsage> rackUsage() {
+        return timed(rackUsage, library::rackUsage);
+    }
+
+    @Override
+    public List<Reports.TitleCount> topBorrowed(int limit) {
+        return timed(topBorrowed, () -> library.topBorrowed(limit));
+    }
+
+    @Override
+    public List<Reports.BorrowerCount> topBorrowers(int limit) {
+        return timed(topBorrowers, () -> library.topBorrowers(limit));
+    }
+
+    @Override
+    public ChangeFeed.Snapshot replicaSnapshot() {
+        return timed(replicaSnapshot, library::replicaSnapshot);
+    }
+
+    @Override
+    public List<ChangeEvent> changesAfter(long epoch, long sequence, int max, long waitMillis) {
+        return timed(changesAfter, () -> library.changesAfter(epoch, sequence, max, waitMillis));
+    }
+
+    @Override
+    public void restoreSnapshot(ChangeFeed.Snapshot snapshot) {
+        timed(restoreSnapshot, () -> {
+            library.restoreSnapshot(snapshot);
+            return null;
+        });
+    }
+
+    @Override
+    public void applyChange(ChangeEvent change) {
+        timed(applyChange, () -> {
+            library.applyChange(change);
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        timed(close, () -> {
+            library.close();
+            return null;
+        });
+    }
+
+    private static <T> T timed(Metrics.Timer timer, Supplier<T> call) {
+        long start = Metrics.start();
+        try {
+            T result = call.get();
+            timer.stop(start);
+            return result;
+        } catch (RuntimeException | Error e) {
+            timer.fail(start);
+            throw e;
+        }
+    }
+}
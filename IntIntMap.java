@@ -0,0 +1,171 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An open-addressing map from int keys to int values, without boxing either.
+ */
+class IntIntMap {
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    IntIntMap() {
+        this(16);
+    }
+
+    IntIntMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    /** Returns the value for the key, or the given default if the key is absent. */
+    public int get(int key, int defaultValue) {
+        int slot = slotOf(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public void put(int key, int value) {
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /** Removes the key, returning its value or the given default if it was absent. */
+    public int remove(int key, int defaultValue) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return defaultValue;
+        }
+        int previous = values[slot];
+        size--;
+        // Backward-shift the rest of the probe run so lookups never need tombstones
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (used[next]) {
+            int home = hash(keys[next]) & mask;
+            boolean stays = gap <= next ? (home > gap && home <= next) : (home > gap || home <= next);
+            if (!stays) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[gap] = false;
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /** Calls the consumer for each entry, in no particular order. */
+    public void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    /** The number of bytes writeTo writes. */
+    int serializedSize() {
+        return Integer.BYTES * 2 + keys.length * (Integer.BYTES * 2 + 1);
+    }
+
+    /** Writes the table as it is laid out, so that readFrom restores it with bulk copies and no rehashing. */
+    void writeTo(ByteBuffer out) {
+        out.putInt(keys.length).putInt(size);
+        out.asIntBuffer().put(keys);
+        out.position(out.position() + keys.length * Integer.BYTES);
+        out.asIntBuffer().put(values);
+        out.position(out.position() + values.length * Integer.BYTES);
+        for (boolean slotUsed : used) {
+            out.put(slotUsed ? (byte) 1 : 0);
+        }
+    }
+
+    /** Reads a map written by writeTo. */
+    static IntIntMap readFrom(ByteBuffer in) {
+        int capacity = in.getInt();
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Not a serialized map");
+        }
+        IntIntMap map = new IntIntMap();
+        map.allocate(capacity);
+        map.size = in.getInt();
+        in.asIntBuffer().get(map.keys);
+        in.position(in.position() + capacity * Integer.BYTES);
+        in.asIntBuffer().get(map.values);
+        in.position(in.position() + capacity * Integer.BYTES);
+        byte[] flags = new byte[capacity];
+        in.get(flags);
+        for (int i = 0; i < capacity; i++) {
+            map.used[i] = flags[i] != 0;
+        }
+        return map;
+    }
+
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(int key, int value);
+    }
+}
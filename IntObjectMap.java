@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An insertion-ordered map from int keys to objects that avoids boxing the keys.
+ *
+ * Entries live in dense parallel arrays (so iteration follows insertion order like the original list);
+ * a linear-probing hash table of dense positions gives O(1) lookups by key.
+ */
+class IntObjectMap<V> {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private V[] values;
+    private int count; // dense slots used, including removed ones
+    private int size;  // live entries
+
+    private int[] table; // dense position of each entry, or EMPTY
+    private int mask;
+
+    IntObjectMap() {
+        this(16);
+    }
+
+    IntObjectMap(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        keys = new int[capacity];
+        values = newArray(capacity);
+        allocateTable(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    public V get(int key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : values[table[slot]];
+    }
+
+    /**
+     * Maps the key to the value, keeping its original position if the key was already present.
+     * @return the previous value for the key, or null.
+     */
+    public V put(int key, V value) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            int position = table[slot];
+            V previous = values[position];
+            values[position] = value;
+            return previous;
+        }
+        if (count == keys.length) {
+            grow();
+        }
+        keys[count] = key;
+        values[count] = value;
+        insert(key, count);
+        count++;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the key, returning the value it mapped to, or null if it was absent.
+     */
+    public V remove(int key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        int position = table[slot];
+        V previous = values[position];
+        values[position] = null;
+        size--;
+        deleteSlot(slot);
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, count, null);
+        Arrays.fill(table, EMPTY);
+        count = 0;
+        size = 0;
+    }
+
+    /** Returns the values in insertion order. */
+    public List<V> values() {
+        List<V> list = new ArrayList<>(size);
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null) {
+                list.add(values[i]);
+            }
+        }
+        return list;
+    }
+
+    /** Calls the consumer for each entry in insertion order. */
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            int position = table[slot];
+            if (position == EMPTY) {
+                return -1;
+            }
+            if (keys[position] == key && values[position] != null) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void insert(int key, int position) {
+        int slot = hash(key) & mask;
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = position;
+    }
+
+    /**
+     * Empties a table slot and shifts later members of its probe run back, so no tombstones are needed.
+     */
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (table[next] != EMPTY) {
+            int home = hash(keys[table[next]]) & mask;
+            // Move the entry into the gap unless its home lies cyclically in (gap, next]
+            boolean stays = gap <= next ? (home > gap && home <= next) : (home > gap || home <= next);
+            if (!stays) {
+                table[gap] = table[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[gap] = EMPTY;
+    }
+
+    /**
+     * Drops removed entries from the dense arrays and, if still mostly full, doubles them.
+     */
+    private void grow() {
+        int capacity = size * 2 > keys.length ? keys.length * 2 : keys.length;
+        int[] newKeys = new int[capacity];
+        V[] newValues = newArray(capacity);
+        int live = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null) {
+                newKeys[live] = keys[i];
+                newValues[live] = values[i];
+                live++;
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        count = live;
+        allocateTable(capacity);
+        for (int i = 0; i < count; i++) {
+            insert(keys[i], i);
+        }
+    }
+
+    private void allocateTable(int capacity) {
+        // Keep the load factor at or below 0.5
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        table = new int[tableSize];
+        Arrays.fill(table, EMPTY);
+        mask = tableSize - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V[] newArray(int capacity) {
+        return (V[]) new Object[capacity];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
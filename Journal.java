@@ -0,0 +1,369 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * A write-ahead log shared by several stores, so that a change spanning them (issuing a book takes a
+ * copy out of the catalog and records a loan) is written as one atomic record.
+ *
+ * Each log frame is a transaction: a list of [stream byte][int length][record] entries, where the
+ * stream names the store that owns the record. A frame is checksummed as a whole, so after a crash
+ * either every record of a transaction is replayed or none is.
+ *
+ * Commits are grouped: a thread that finds another one flushing queues its frame and the next
+ * flush writes everything queued with one write and one force, so concurrent desks share the cost
+ * of a flush.
+ *
+ * A commit returns only once its frame is on disk. If a flush fails, every commit in it throws
+ * UncheckedIOException and the journal refuses all later changes (and compactions), since the
+ * stores now hold changes the log does not; reopening recovers the last durable state.
+ *
+ * All parties snapshot together under one generation; see compact. A compaction waits for every open
+ * transaction to commit, since the stores apply a transaction's changes before its frame is queued.
+ */
+class Journal implements Closeable {
+
+    /** A store whose changes are logged in a journal. */
+    interface Party {
+        /** The generation of the party's snapshot. */
+        long generation();
+
+        /** Applies one of the party's records during replay. */
+        void apply(ByteBuffer record);
+
+        /** Writes the party's full state as a snapshot stamped with the generation. */
+        void writeSnapshot(long generation) throws IOException;
+
+        /** Number of live entries, used to decide when the journal is worth compacting. */
+        int size();
+    }
+
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final WriteAheadLog log;
+    private final Party[] parties = new Party[Byte.MAX_VALUE + 1];
+    private final List<Party> registered = new ArrayList<>();
+    private final ThreadLocal<Transaction> current = new ThreadLocal<>();
+    // Transactions hold the read lock until their frame is on disk; compaction takes the write lock
+    private final ReentrantReadWriteLock openTransactions = new ReentrantReadWriteLock();
+
+    // Group commit: frames wait in pending until a flusher takes the whole queue
+    private final Object queueLock = new Object();
+    private final Object flushLock = new Object();
+    private List<Ticket> pending = new ArrayList<>();
+    private volatile IOException failure; // the first failed flush; set once
+    private volatile long records; // store records in the log, counted apart from the frames holding them
+
+    private Journal(Path path) throws IOException {
+        this.log = new WriteAheadLog(path);
+    }
+
+    static Journal open(Path path) throws IOException {
+        return new Journal(path);
+    }
+
+    /** Adds a store under the given stream number. All parties register before recover is called. */
+    void register(byte stream, Party party) {
+        if (parties[stream] != null) {
+            throw new IllegalStateException("Stream " + stream + " is already registered");
+        }
+        parties[stream] = party;
+        registered.add(party);
+    }
+
+    /**
+     * Replays the journal into the parties whose snapshot it applies to. A party whose snapshot is newer
+     * (written by a compaction that was cut short) already holds the records and skips them; in that case,
+     * or after a migration, every party is compacted to a common generation.
+     */
+    void recover() throws IOException {
+        long generation = log.generation();
+        records = 0;
+        log.replay(frame -> {
+            while (frame.hasRemaining()) {
+                records++;
+                byte stream = frame.get();
+                int length = frame.getInt();
+                ByteBuffer record = frame.slice();
+                record.limit(length);
+                Party party = stream >= 0 ? parties[stream] : null;
+                if (party != null && party.generation() == generation) {
+                    party.apply(record);
+                }
+                frame.position(frame.position() + length);
+            }
+        });
+        long newest = generation;
+        boolean aligned = true;
+        for (Party party : registered) {
+            aligned &= party.generation() == generation;
+            newest = Math.max(newest, party.generation());
+        }
+        if (!aligned) {
+            compactTo(newest + 1);
+        }
+    }
+
+    /**
+     * Runs the body as one transaction: every record the current thread appends meanwhile is
+     * committed as a single frame when the body returns. Records appended before the body throws are
+     * still committed, since the stores have already applied them in memory.
+     * Nested calls join the outer transaction.
+     */
+    <T> T transaction(Supplier<T> body) {
+        if (current.get() != null) {
+            return body.get();
+        }
+        checkWritable();
+        Transaction transaction = new Transaction();
+        openTransactions.readLock().lock();
+        current.set(transaction);
+        try {
+            return body.get();
+        } finally {
+            current.remove();
+            try {
+                if (!transaction.isEmpty()) {
+                    commit(transaction);
+                }
+            } finally {
+                openTransactions.readLock().unlock();
+            }
+        }
+    }
+
+    /** Logs one record for a party, durably unless a transaction is open on this thread. */
+    void append(byte stream, byte[] record) {
+        appendAll(stream, List.of(record));
+    }
+
+    /**
+     * Logs one record durably before returning, even inside a transaction. For records that other
+     * transactions may depend on before this one commits, such as a newly registered name.
+     */
+    void appendNow(byte stream, byte[] record) {
+        checkWritable();
+        Transaction single = new Transaction();
+        single.add(stream, record);
+        commit(single);
+    }
+
+    /** Logs several records for a party in one frame. */
+    void appendAll(byte stream, List<byte[]> records) {
+        Transaction transaction = current.get();
+        if (transaction != null) {
+            transaction.addAll(stream, records);
+            return;
+        }
+        checkWritable();
+        Transaction single = new Transaction();
+        single.addAll(stream, records);
+        commit(single);
+    }
+
+    /**
+     * Compacts when the journal holds as many records as the parties have live entries (a frame holds
+     * every record of its transaction, so frames are not counted). Must be called while holding no store
+     * locks (the parties are locked here, before the journal). Inside a transaction it does nothing, as
+     * the compaction would wait for that transaction to commit.
+     */
+    void compactIfNeeded() {
+        if (current.get() != null) {
+            return;
+        }
+        long live = 0;
+        for (Party party : registered) {
+            live += party.size();
+        }
+        if (records >= Math.max(COMPACT_MIN_RECORDS, live)) {
+            compact();
+        }
+    }
+
+    /**
+     * Snapshots every party under the next generation and empties the journal.
+     * A crash part way leaves some snapshots at the new generation, which then ignore the old
+     * journal on recovery while the others replay it.
+     */
+    void compact() {
+        if (failure != null) {
+            System.err.println("Error compacting journal: an earlier write failed; reopen the library to recover");
+            return;
+        }
+        try {
+            compactTo(log.generation() + 1);
+        } catch (IOException e) {
+            System.err.println("Error compacting journal: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (log.records() > 0 && failure == null) {
+                compact();
+            }
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal: " + e.getMessage());
+        }
+    }
+
+    /** Waits for the open transactions to commit, then holds off new ones while the parties are snapshotted. */
+    private void compactTo(long generation) throws IOException {
+        if (current.get() != null) {
+            throw new IllegalStateException("The journal cannot be compacted inside a transaction");
+        }
+        openTransactions.writeLock().lock();
+        try {
+            lockParties(0, generation);
+        } finally {
+            openTransactions.writeLock().unlock();
+        }
+    }
+
+    /** Takes each party's monitor in registration order, then snapshots with no commit in progress. */
+    private void lockParties(int index, long generation) throws IOException {
+        if (index < registered.size()) {
+            synchronized (registered.get(index)) {
+                lockParties(index + 1, generation);
+            }
+            return;
+        }
+        synchronized (flushLock) {
+            flushPending();
+            if (failure != null) {
+                // The parties may hold changes that were never acknowledged; they must not be snapshotted
+                throw new IOException("An earlier write to the journal failed", failure);
+            }
+            for (Party party : registered) {
+                party.writeSnapshot(generation);
+            }
+            log.reset(generation);
+            records = 0;
+        }
+    }
+
+    /** Throws if an earlier flush failed, before the caller changes anything in memory. */
+    private void checkWritable() {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException("The journal stopped accepting changes after a failed write;"
+                    + " reopen the library to recover", failed);
+        }
+    }
+
+    /** Queues the frame and returns once it is on disk, or throws UncheckedIOException if its flush failed. */
+    private void commit(Transaction transaction) {
+        Ticket ticket = new Ticket(transaction.toFrame(), transaction.size());
+        synchronized (queueLock) {
+            pending.add(ticket);
+        }
+        synchronized (flushLock) {
+            if (!ticket.done) {
+                flushPending();
+            }
+            if (ticket.failure != null) {
+                throw new UncheckedIOException("Error writing to journal", ticket.failure);
+            }
+        }
+    }
+
+    /** Writes every queued frame with one force and settles their tickets. Called holding flushLock. */
+    private void flushPending() {
+        List<Ticket> batch;
+        synchronized (queueLock) {
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<byte[]> frames = new ArrayList<>(batch.size());
+        long count = 0;
+        for (Ticket ticket : batch) {
+            frames.add(ticket.frame);
+            count += ticket.records;
+        }
+        IOException failed = failure;
+        if (failed == null) {
+            try {
+                log.append(frames);
+                records += count;
+            } catch (IOException e) {
+                System.err.println("Error writing to journal: " + e.getMessage());
+                failure = failed = e;
+            }
+        }
+        for (Ticket ticket : batch) {
+            ticket.failure = failed;
+            ticket.done = true;
+        }
+    }
+
+    /** A queued frame and the outcome of its flush, both guarded by flushLock. */
+    private static final class Ticket {
+        private final byte[] frame;
+        private final int records;
+        private boolean done;
+        private IOException failure;
+
+        Ticket(byte[] frame, int records) {
+            this.frame = frame;
+            this.records = records;
+        }
+    }
+
+    /** Records gathered for one frame. */
+    private static final class Transaction {
+        private final List<byte[]> records = new ArrayList<>(2);
+        private final List<Byte> streams = new ArrayList<>(2);
+        private int size;
+
+        void add(byte stream, byte[] record) {
+            addAll(stream, List.of(record));
+        }
+
+        /**
+         * Adds all the records or, if they would take the frame past what the log can read back, none
+         * (IllegalArgumentException); stores append before they apply a change, so the change is not made.
+         */
+        void addAll(byte stream, List<byte[]> added) {
+            long grown = size;
+            for (byte[] record : added) {
+                grown += 1 + Integer.BYTES + record.length;
+            }
+            if (grown > WriteAheadLog.MAX_RECORD_SIZE) {
+                throw new IllegalArgumentException("The transaction is too large for one journal frame ("
+                        + grown + " bytes)");
+            }
+            for (byte[] record : added) {
+                streams.add(stream);
+                records.add(record);
+            }
+            size = (int) grown;
+        }
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        int size() {
+            return records.size();
+        }
+
+        byte[] toFrame() {
+            ByteBuffer frame = ByteBuffer.allocate(size);
+            for (int i = 0; i < records.size(); i++) {
+                frame.put(streams.get(i)).putInt(records.get(i).length).put(records.get(i));
+            }
+            return frame.array();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with log-linear buckets, in the manner of HdrHistogram.
+ *
+ * Each power of two is split into 64 equal buckets, so any recorded value is reported to within
+ * 1.6% while the whole range of a long fits in a fixed array. Recording is lock-free.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        total.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recordings fall, as the upper end of its
+     * bucket, or 0 if nothing was recorded.
+     */
+    long percentile(double percent) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Values below 128 get a bucket each; above that, a bucket covers the values sharing their top 7 bits. */
+    private static int index(long value) {
+        int shift = Math.max(0, Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    private static long highestInBucket(int index) {
+        int shift = Math.max(0, (index >> SUB_BITS) - 1);
+        long top = index - ((long) shift << SUB_BITS);
+        return ((top + 1) << shift) - 1;
+    }
+}
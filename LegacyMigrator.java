@@ -0,0 +1,98 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * One-time conversion of data files written with Java object serialization to the BookCodec format.
+ *
+ * A legacy file holds a serialized List of books, optionally followed by a generation number and
+ * accompanied by a "<file>.log" whose records embed serialized books. Both are folded into a single
+ * binary snapshot; the original file is kept as "<file>.legacy".
+ */
+final class LegacyMigrator {
+
+    private static final int STREAM_MAGIC = 0xACED;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private LegacyMigrator() {
+    }
+
+    /**
+     * Returns true if the file starts with the Java serialization stream header.
+     */
+    static boolean isLegacy(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < 2) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            return ((in.read() << 8) | in.read()) == STREAM_MAGIC;
+        }
+    }
+
+    /**
+     * Migrates the file (and its log) in place if it is still in the legacy format.
+     * @param keyedById whether entries are keyed by book id, or by position as for issued books.
+     */
+    static void migrateIfNeeded(String filename, boolean keyedById) throws IOException {
+        Path file = Paths.get(filename);
+        if (!isLegacy(file)) {
+            return;
+        }
+        IntObjectMap<Book> books = new IntObjectMap<>();
+        long generation = 0;
+        try (ObjectInputStream ois = new ObjectInputStream(Files.newInputStream(file))) {
+            @SuppressWarnings("unchecked")
+            List<Book> saved = (List<Book>) ois.readObject();
+            int key = 1;
+            for (Book book : saved) {
+                books.put(keyedById ? book.getId() : key++, book);
+            }
+            try {
+                generation = ois.readLong();
+            } catch (EOFException e) {
+                // Written before the log existed: generation 0
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable legacy file " + filename, e);
+        }
+
+        Path logFile = Paths.get(filename + ".log");
+        if (Files.exists(logFile)) {
+            try (WriteAheadLog log = new WriteAheadLog(logFile)) {
+                if (log.generation() == generation) {
+                    log.replay(record -> applyLegacyRecord(books, record));
+                }
+            }
+        }
+
+        Files.copy(file, Paths.get(filename + ".legacy"), StandardCopyOption.REPLACE_EXISTING);
+        BookCodec.writeSnapshot(file, generation + 1, books.values());
+        Files.deleteIfExists(logFile);
+        System.out.println("Migrated " + books.size() + " records in " + filename + " to the binary format.");
+    }
+
+    private static void applyLegacyRecord(IntObjectMap<Book> books, ByteBuffer record) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(record.array(), record.position(), record.remaining()))) {
+            byte op = in.readByte();
+            int key = in.readInt();
+            if (op == OP_PUT) {
+                books.put(key, (Book) new ObjectInputStream(in).readObject());
+            } else if (op == OP_DELETE) {
+                books.remove(key);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Corrupt legacy log record", e);
+        }
+    }
+}
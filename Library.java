@@ -0,0 +1,919 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The library catalog and its loans: a book repository plus the in-memory indexes kept in step
+ * with it, and the store of books currently lent out.
+ *
+ * All catalog changes go through this class so the indexes never drift from storage.
+ * Books handed in are stored as given; callers edit a copy and pass it to updateBook, or use editBook.
+ *
+ * Safe for use by several desks at once. Changes to one book (including issuing and returning it)
+ * hold that book's lock from a set of striped locks, so a check-and-update such as taking the last
+ * copy is atomic while different books proceed in parallel. The text and facet indexes sit behind
+ * a read-write lock, held only while they are read or updated.
+ *
+ * Each change runs as one journal transaction while its book lock is held, so what it writes to the
+ * catalog and to the loans is committed as a single record, in the same order as the changes.
+ *
+ * The inventory and rack reports read CatalogAggregates, computed in parallel when the library opens
+ * and then updated with every change, issue and return; the borrowing reports rank the loan store's
+ * lifetime counts in parallel when asked.
+ *
+ * Building the indexes and totals means reading the whole catalog, so a library made with warmingUp
+ * does it on a background thread and is usable at once: lookups by id, listings, loans and name
+ * lookups (by scanning until the index is ready) do not wait, while searches and changes wait for the
+ * warm-up to finish.
+ *
+ * Every change is also published to a ChangeFeed, under the same book lock, so followers see the
+ * changes to a book in the order they were made. A follower copies replicaSnapshot (taken with every
+ * book locked, so it is exactly the state after one sequence number), then applies the changes after
+ * it with applyChange; see Follower.
+ *
+ * A student can place a hold on a title with no copy on the shelf, joining its waitlist in a
+ * HoldStore. Whenever a copy would go back on the shelf (a return, or copies added by an edit), it is
+ * lent straight to the first student waiting instead, so a title never has copies on the shelf while
+ * students wait for it. Holds are not part of the change feed; followers see the loans they turn into.
+ */
+class Library implements LibraryService {
+
+    /** The loan period of a copy handed to the student first on a title's waitlist. */
+    static final int HOLD_LOAN_DAYS = 15;
+
+    // Books the warm-up holds at a time, so its heap use does not grow with the catalog
+    private static final int WARM_UP_CHUNK = 8192;
+
+    private final BookRepository catalog;
+    private final TextIndex textIndex = new TextIndex();
+    private final FacetIndex facetIndex = new FacetIndex();
+    private final SortedBookViews sortedViews = new SortedBookViews();
+    private final CountDownLatch warm = new CountDownLatch(1);
+    private CatalogAggregates aggregates; // set by warmUp, read after awaitWarm
+    private volatile RuntimeException warmUpFailure;
+    private final LoanStore loans;
+    private final HoldStore holds;
+    private final Journal journal;
+    private final StripedLocks bookLocks = new StripedLocks(64);
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final ChangeFeed feed = new ChangeFeed(ChangeFeed.DEFAULT_CAPACITY);
+
+    /**
+     * @param journal the journal the stores log to, used to commit each change as one record;
+     *                null if the stores keep logs of their own.
+     */
+    Library(BookRepository catalog, LoanStore loans, HoldStore holds, Journal journal) {
+        this(catalog, loans, holds, journal, false);
+    }
+
+    private Library(BookRepository catalog, LoanStore loans, HoldStore holds, Journal journal, boolean background) {
+        this.catalog = catalog;
+        this.loans = loans;
+        this.holds = holds;
+        this.journal = journal;
+        if (background) {
+            Thread warmer = new Thread(this::warmUp, "library-warmup");
+            warmer.setDaemon(true);
+            warmer.start();
+        } else {
+            warmUp();
+        }
+    }
+
+    /**
+     * Returns a library whose indexes are built on a background thread; see the class comment for
+     * which operations wait for them.
+     */
+    static Library warmingUp(BookRepository catalog, LoanStore loans, HoldStore holds, Journal journal) {
+        return new Library(catalog, loans, holds, journal, true);
+    }
+
+    /** Whether the indexes and totals are built (or failed to build). */
+    boolean isWarm() {
+        return warm.getCount() == 0;
+    }
+
+    @Override
+    public Book findBook(int id) {
+        return catalog.get(id);
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return catalog.contains(id);
+    }
+
+    @Override
+    public List<Book> listBooks() {
+        return catalog.list();
+    }
+
+    /**
+     * Reads only the books on the requested page from storage. A page may come back short if books
+     * on it were deleted while it was being read; the token still continues from the right place.
+     */
+    @Override
+    public Page<Book> listBooks(BookOrder order, String pageToken, int pageSize) {
+        awaitWarm();
+        checkPageSize(pageSize);
+        SortedBookViews.Slice slice;
+        indexLock.readLock().lock();
+        try {
+            slice = sortedViews.page(order, pageToken, pageSize);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return new Page<>(books(slice.ids), slice.nextToken);
+    }
+
+    /**
+     * Stores a new book. Throws IllegalArgumentException if a book with its id already exists
+     * or the backend cannot store it.
+     */
+    @Override
+    public void addBook(Book book) {
+        awaitWarm();
+        ReentrantLock lock = bookLocks.forId(book.getId());
+        lock.lock();
+        try {
+            atomically(() -> {
+                if (catalog.contains(book.getId())) {
+                    throw new IllegalArgumentException("A book with ID " + book.getId() + " already exists");
+                }
+                catalog.put(book.getId(), book);
+                index(book);
+                feed.publish(sequence -> ChangeEvent.stored(sequence, ChangeEvent.Type.ADD, book));
+                return null;
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Stores a batch of new books with one flush, skipping ids already in the catalog. Every book lock
+     * is held for the batch, so desks wait for at most one batch. Throws IllegalArgumentException,
+     * storing none of them, if the backend cannot store one.
+     */
+    @Override
+    public int addBooks(List<Book> books) {
+        awaitWarm();
+        int added;
+        bookLocks.lockAll();
+        try {
+            added = atomically(() -> {
+                List<Book> fresh = new ArrayList<>(books.size());
+                for (Book book : books) {
+                    if (!catalog.contains(book.getId())) {
+                        fresh.add(book);
+                    }
+                }
+                catalog.putAll(fresh);
+                indexLock.writeLock().lock();
+                try {
+                    for (Book book : fresh) {
+                        index(book);
+                        feed.publish(sequence -> ChangeEvent.stored(sequence, ChangeEvent.Type.ADD, book));
+                    }
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+                return fresh.size();
+            });
+        } finally {
+            bookLocks.unlockAll();
+        }
+        compactIfNeeded();
+        return added;
+    }
+
+    @Override
+    public void forEachBook(Consumer<? super Book> action) {
+        catalog.forEach(action);
+    }
+
+    @Override
+    public long totalQuantity() {
+        return catalog.totalQuantity();
+    }
+
+    /**
+     * Replaces the stored book that has the same id. Throws IllegalArgumentException if the backend cannot store it.
+     */
+    @Override
+    public void updateBook(Book book) {
+        awaitWarm();
+        ReentrantLock lock = bookLocks.forId(book.getId());
+        lock.lock();
+        try {
+            atomically(() -> {
+                replace(catalog.get(book.getId()), book);
+                feed.publish(sequence -> ChangeEvent.stored(sequence, ChangeEvent.Type.UPDATE, book));
+                fillHolds(book.getId());
+                return null;
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Applies the changes to a copy of the stored book and stores it, as one step with respect to
+     * other desks (so an issue in between is not overwritten with a stale quantity).
+     * Throws IllegalArgumentException if the backend cannot store the result.
+     * @return the stored book, or null if there is no book with that id.
+     */
+    @Override
+    public Book editBook(int id, Consumer<Book> changes) {
+        awaitWarm();
+        Book edited;
+        ReentrantLock lock = bookLocks.forId(id);
+        lock.lock();
+        try {
+            edited = atomically(() -> {
+                Book previous = catalog.get(id);
+                if (previous == null) {
+                    return null;
+                }
+                Book copy = new Book(previous);
+                changes.accept(copy);
+                if (copy.getId() != id) {
+                    throw new IllegalArgumentException("The book ID cannot be changed");
+                }
+                replace(previous, copy);
+                feed.publish(sequence -> ChangeEvent.stored(sequence, ChangeEvent.Type.UPDATE, copy));
+                fillHolds(id);
+                return catalog.get(id);
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+        return edited;
+    }
+
+    @Override
+    public boolean deleteBook(int id) {
+        awaitWarm();
+        boolean deleted;
+        ReentrantLock lock = bookLocks.forId(id);
+        lock.lock();
+        try {
+            deleted = atomically(() -> {
+                Book previous = catalog.get(id);
+                if (previous == null || !catalog.delete(id)) {
+                    return false;
+                }
+                unindex(previous);
+                holds.cancelAll(id);
+                feed.publish(sequence -> ChangeEvent.deleted(sequence, id));
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+        return deleted;
+    }
+
+    /**
+     * Lends one copy of a book, taking it out of stock. The stock change and the loan are committed
+     * as one journal record. Throws IllegalArgumentException if the loan period is under a day.
+     * @return the new loan, or null if there is no such book or no copy is left.
+     */
+    @Override
+    public Loan issueBook(int bookId, String borrower, int loanDays) {
+        if (loanDays < 1) {
+            throw new IllegalArgumentException("The loan period must be at least one day");
+        }
+        awaitWarm();
+        Loan loan;
+        ReentrantLock lock = bookLocks.forId(bookId);
+        lock.lock();
+        try {
+            loan = atomically(() -> {
+                if (!catalog.adjustQuantity(bookId, -1)) {
+                    return null;
+                }
+                Loan issued;
+                try {
+                    issued = loans.checkOut(bookId, borrower, LocalDate.now(), loanDays);
+                } catch (RuntimeException e) {
+                    // No loan was recorded, so the copy goes back on the shelf
+                    catalog.adjustQuantity(bookId, 1);
+                    throw e;
+                }
+                Book lent = catalog.get(bookId);
+                aggregates.lend(lent);
+                feed.publish(sequence -> ChangeEvent.issued(sequence, issued, loans.borrowerName(issued.getBorrowerId()), lent));
+                return issued;
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+        return loan;
+    }
+
+    /**
+     * Ends a loan and puts the copy back in stock (if the book is still in the catalog), as one
+     * journal record. If students are waiting for the title, the copy is lent to the first of them
+     * in the same record.
+     * @return the finished loan, or null if there was no such loan.
+     */
+    @Override
+    public Loan returnBook(int loanId) {
+        awaitWarm();
+        Loan current = loans.get(loanId);
+        if (current == null) {
+            return null;
+        }
+        Loan loan;
+        ReentrantLock lock = bookLocks.forId(current.getBookId());
+        lock.lock();
+        try {
+            loan = atomically(() -> {
+                // Another desk may have ended the loan since it was looked up
+                Loan ended = loans.checkIn(loanId);
+                if (ended == null) {
+                    return null;
+                }
+                Book restocked = catalog.adjustQuantity(ended.getBookId(), 1) ? catalog.get(ended.getBookId()) : null;
+                if (restocked != null) {
+                    aggregates.giveBack(restocked);
+                }
+                feed.publish(sequence -> ChangeEvent.returned(sequence, ended, restocked));
+                if (restocked != null) {
+                    fillHolds(restocked.getId());
+                }
+                return ended;
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+        return loan;
+    }
+
+    /**
+     * Puts the student on the waitlist of a title with no copy on the shelf. Throws
+     * IllegalArgumentException if a copy is on the shelf, the name is empty, or the student is already
+     * waiting for the title.
+     * @return the hold, or null if there is no such book.
+     */
+    @Override
+    public Hold placeHold(int bookId, String borrower) {
+        awaitWarm();
+        if (borrower == null || borrower.isBlank()) {
+            throw new IllegalArgumentException("The student name is empty");
+        }
+        Hold hold;
+        ReentrantLock lock = bookLocks.forId(bookId);
+        lock.lock();
+        try {
+            hold = atomically(() -> {
+                Book book = catalog.get(bookId);
+                if (book == null) {
+                    return null;
+                }
+                if (book.getQuantity() > 0) {
+                    throw new IllegalArgumentException("A copy is on the shelf; issue it instead of placing a hold");
+                }
+                for (Hold waiting : holds.waiting(bookId)) {
+                    if (waiting.getBorrower().equalsIgnoreCase(borrower.trim())) {
+                        throw new IllegalArgumentException(waiting.getBorrower() + " is already waiting for this book");
+                    }
+                }
+                return holds.place(bookId, borrower.trim(), System.currentTimeMillis());
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+        return hold;
+    }
+
+    @Override
+    public boolean cancelHold(int holdId) {
+        Hold current = holds.get(holdId);
+        if (current == null) {
+            return false;
+        }
+        boolean cancelled;
+        ReentrantLock lock = bookLocks.forId(current.getBookId());
+        lock.lock();
+        try {
+            cancelled = atomically(() -> holds.cancel(holdId) != null);
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+        return cancelled;
+    }
+
+    @Override
+    public List<Hold> holdsForBook(int bookId) {
+        return holds.waiting(bookId);
+    }
+
+    /** The waitlists, longest first, then by how long the first student has waited. */
+    @Override
+    public List<Reports.HoldQueue> holdQueues() {
+        long[][] totals = holds.queueTotals(System.currentTimeMillis());
+        List<Reports.HoldQueue> rows = new ArrayList<>(totals[0].length);
+        for (int i = 0; i < totals[0].length; i++) {
+            Book book = catalog.get((int) totals[0][i]);
+            rows.add(new Reports.HoldQueue((int) totals[0][i], book == null ? null : book.getName(), (int) totals[1][i],
+                    totals[2][i], totals[3][i], totals[4][i]));
+        }
+        rows.sort(Comparator.comparingInt(Reports.HoldQueue::getWaiting).reversed()
+                .thenComparing(Comparator.comparingDouble(Reports.HoldQueue::getLongestWaitDays).reversed())
+                .thenComparingInt(Reports.HoldQueue::getBookId));
+        return rows;
+    }
+
+    @Override
+    public List<Loan> listLoans() {
+        return loans.list();
+    }
+
+    @Override
+    public Page<Loan> listLoans(String pageToken, int pageSize) {
+        checkPageSize(pageSize);
+        int after;
+        try {
+            after = pageToken == null ? 0 : Integer.parseInt(pageToken);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+        List<Loan> page = loans.loansAfter(after, pageSize + 1);
+        boolean more = page.size() > pageSize;
+        if (more) {
+            page = page.subList(0, pageSize);
+        }
+        return new Page<>(page, more ? Integer.toString(page.get(pageSize - 1).getLoanId()) : null);
+    }
+
+    @Override
+    public List<Loan> loansForBook(int bookId) {
+        return loans.loansForBook(bookId);
+    }
+
+    /**
+     * Returns the loans due within the next given number of days, earliest first. Throws
+     * IllegalArgumentException if the number of days is negative.
+     */
+    @Override
+    public List<Loan> dueWithin(int days) {
+        if (days < 0) {
+            throw new IllegalArgumentException("The number of days cannot be negative");
+        }
+        return loans.dueWithin(LocalDate.now(), days);
+    }
+
+    /** Returns the loans past their due date, most overdue first. */
+    @Override
+    public List<Loan> overdueLoans() {
+        return loans.overdue(LocalDate.now());
+    }
+
+    /** Returns the loans that became overdue since the last sweep. See LoanStore.sweepOverdue. */
+    @Override
+    public List<Loan> sweepOverdue() {
+        return loans.sweepOverdue(LocalDate.now());
+    }
+
+    @Override
+    public String borrowerName(Loan loan) {
+        return loans.borrowerName(loan.getBorrowerId());
+    }
+
+    /** Copies on the shelf and their value per category, from the running totals. */
+    @Override
+    public List<Reports.CategoryValue> inventoryValue() {
+        awaitWarm();
+        return aggregates.categories();
+    }
+
+    /** Copies on the shelf and on loan per rack, from the running totals. */
+    @Override
+    public List<Reports.RackUsage> rackUsage() {
+        awaitWarm();
+        return aggregates.racks();
+    }
+
+    /** The titles lent most often, most first; ranked in parallel over every title ever lent. */
+    @Override
+    public List<Reports.TitleCount> topBorrowed(int limit) {
+        int[][] counts = loans.issueCountsByBook();
+        List<Reports.TitleCount> rows = new ArrayList<>();
+        for (int i : Reports.top(counts[0], counts[1], limit)) {
+            Book book = catalog.get(counts[0][i]);
+            rows.add(new Reports.TitleCount(counts[0][i], book == null ? null : book.getName(), counts[1][i]));
+        }
+        return rows;
+    }
+
+    /** The students who have borrowed most often, most first; ranked in parallel over every borrower. */
+    @Override
+    public List<Reports.BorrowerCount> topBorrowers(int limit) {
+        int[][] counts = loans.loanCountsByBorrower();
+        List<Reports.BorrowerCount> rows = new ArrayList<>();
+        for (int i : Reports.top(counts[0], counts[1], limit)) {
+            rows.add(new Reports.BorrowerCount(loans.borrowerName(counts[0][i]), counts[1][i], counts[2][i]));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the books whose name equals the given one, ignoring case. Scans the catalog while the
+     * library is still warming up.
+     */
+    @Override
+    public List<Book> findByName(String name) {
+        int[] candidates = null;
+        if (isWarm()) {
+            indexLock.readLock().lock();
+            try {
+                candidates = textIndex.nameCandidates(name);
+            } finally {
+                indexLock.readLock().unlock();
+            }
+        }
+        if (candidates == null) {
+            // Not indexed yet, or nothing to look up (e.g. only punctuation), so compare every name
+            List<Book> results = new ArrayList<>();
+            catalog.forEach(book -> {
+                if (book.getName().equalsIgnoreCase(name)) {
+                    results.add(new Book(book));
+                }
+            });
+            return results;
+        }
+        List<Book> results = new ArrayList<>();
+        for (int id : candidates) {
+            Book book = catalog.get(id);
+            if (book != null && book.getName().equalsIgnoreCase(name)) {
+                results.add(book);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Keyword search over names and authors, best matches first. See TextIndex.search for the syntax.
+     */
+    @Override
+    public List<Book> search(String query) {
+        awaitWarm();
+        int[] ids;
+        indexLock.readLock().lock();
+        try {
+            ids = textIndex.search(query);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return books(ids);
+    }
+
+    /**
+     * Typo-tolerant search over names and authors, fewest edits first, at most limit books.
+     * See TextIndex.fuzzySearch.
+     */
+    @Override
+    public List<Book> fuzzySearch(String query, int limit) {
+        awaitWarm();
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit must be at least 1");
+        }
+        int[] ids;
+        indexLock.readLock().lock();
+        try {
+            ids = textIndex.fuzzySearch(query);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return books(ids.length > limit ? Arrays.copyOf(ids, limit) : ids);
+    }
+
+    /**
+     * Returns the books matching a category/rack/price query, in id order.
+     */
+    @Override
+    public List<Book> browse(BookQuery query) {
+        awaitWarm();
+        int[] ids;
+        indexLock.readLock().lock();
+        try {
+            ids = facetIndex.query(query);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return books(ids);
+    }
+
+    /**
+     * Copies the catalog and the loans out with every book locked, so the copy is the state after
+     * exactly the change numbered with its sequence.
+     */
+    @Override
+    public ChangeFeed.Snapshot replicaSnapshot() {
+        bookLocks.lockAll();
+        try {
+            long sequence = feed.lastSequence();
+            List<ChangeEvent> events = new ArrayList<>();
+            catalog.forEach(book -> events.add(ChangeEvent.stored(sequence, ChangeEvent.Type.ADD, book)));
+            for (Loan loan : loans.list()) {
+                events.add(ChangeEvent.issued(sequence, loan, loans.borrowerName(loan.getBorrowerId()), null));
+            }
+            int[][] counts = loans.issueCountsByBook();
+            IntIntMap bookIssues = new IntIntMap(counts[0].length);
+            for (int i = 0; i < counts[0].length; i++) {
+                bookIssues.put(counts[0][i], counts[1][i]);
+            }
+            return new ChangeFeed.Snapshot(feed.epoch(), sequence, events, bookIssues, loans.issueCountsByBorrowerName());
+        } finally {
+            bookLocks.unlockAll();
+        }
+    }
+
+    /** See ChangeFeed.after; an interrupted wait returns no changes. */
+    @Override
+    public List<ChangeEvent> changesAfter(long epoch, long sequence, int max, long waitMillis) {
+        try {
+            return feed.after(epoch, sequence, max, waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Replaces the whole catalog and every loan with the snapshot's, as one journal transaction with
+     * every book locked. Loans keep their ids, so later RETURN changes find them, and the borrowing
+     * counts are taken from the snapshot rather than counted again.
+     */
+    @Override
+    public void restoreSnapshot(ChangeFeed.Snapshot snapshot) {
+        awaitWarm();
+        bookLocks.lockAll();
+        try {
+            atomically(() -> {
+                indexLock.writeLock().lock();
+                try {
+                    // Books go first and come back last, so the totals count each with its loans
+                    int[] ids = new int[catalog.size()];
+                    int[] count = {0};
+                    catalog.forEach(book -> ids[count[0]++] = book.getId());
+                    for (int i = 0; i < count[0]; i++) {
+                        Book book = catalog.get(ids[i]);
+                        catalog.delete(book.getId());
+                        unindex(book);
+                    }
+                    for (Loan loan : loans.list()) {
+                        loans.checkIn(loan.getLoanId());
+                    }
+                    List<Book> books = new ArrayList<>();
+                    for (ChangeEvent event : snapshot.getEvents()) {
+                        if (event.getType() == ChangeEvent.Type.ISSUE) {
+                            loans.restore(event.getLoanId(), event.getBookId(), event.getBorrower(), event.getIssuedDay(), event.getDueDay());
+                        } else {
+                            books.add(event.getBook());
+                        }
+                    }
+                    loans.restoreIssueCounts(snapshot.getBookIssues(), snapshot.getStudentIssues());
+                    catalog.putAll(books);
+                    for (Book book : books) {
+                        index(book);
+                    }
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+                return null;
+            });
+        } finally {
+            bookLocks.unlockAll();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Applies one change from another library's feed: the book is stored as the change gives it and
+     * the loan recorded or ended, as one journal transaction under the book's lock. Changes applied
+     * here are not published again, so followers cannot be chained.
+     */
+    @Override
+    public void applyChange(ChangeEvent change) {
+        awaitWarm();
+        ReentrantLock lock = bookLocks.forId(change.getBookId());
+        lock.lock();
+        try {
+            atomically(() -> {
+                indexLock.writeLock().lock();
+                try {
+                    // Taken out of the totals before its loans change, and put back after
+                    Book previous = catalog.get(change.getBookId());
+                    if (previous != null) {
+                        unindex(previous);
+                    }
+                    Book book = change.getBook();
+                    switch (change.getType()) {
+                        case ISSUE:
+                            loans.restore(change.getLoanId(), change.getBookId(), change.getBorrower(),
+                                    change.getIssuedDay(), change.getDueDay());
+                            break;
+                        case RETURN:
+                            loans.checkIn(change.getLoanId());
+                            break;
+                        case DELETE:
+                            if (previous != null) {
+                                catalog.delete(change.getBookId());
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    if (book != null) {
+                        catalog.put(book.getId(), book);
+                    } else if (change.getType() != ChangeEvent.Type.DELETE) {
+                        book = previous;
+                    }
+                    if (book != null) {
+                        index(book);
+                    }
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+                return null;
+            });
+        } finally {
+            lock.unlock();
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public void close() {
+        try {
+            // The warm-up reads the catalog, so it must finish before the stores close
+            warm.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        catalog.close();
+        loans.close();
+        holds.close();
+    }
+
+    /**
+     * Indexes the whole catalog and computes the running totals in one streaming pass, holding a
+     * chunk of books at a time rather than the whole catalog.
+     */
+    private void warmUp() {
+        long start = Metrics.start();
+        try {
+            IntIntMap loansByBook = loans.loanCountsByBook();
+            CatalogAggregates totals = new CatalogAggregates();
+            List<Book> chunk = new ArrayList<>(WARM_UP_CHUNK);
+            catalog.forEach(book -> {
+                Book copy = new Book(book);
+                addToIndexes(copy);
+                chunk.add(copy);
+                if (chunk.size() == WARM_UP_CHUNK) {
+                    totals.addAll(chunk, loansByBook);
+                    chunk.clear();
+                }
+            });
+            totals.addAll(chunk, loansByBook);
+            aggregates = totals;
+            Metrics.timer("library.warmUp").stop(start);
+        } catch (RuntimeException e) {
+            warmUpFailure = e;
+            System.err.println("Error indexing the catalog: " + e.getMessage());
+        } finally {
+            warm.countDown();
+        }
+    }
+
+    /** Waits until the indexes and totals are built; throws IllegalStateException if building them failed. */
+    private void awaitWarm() {
+        try {
+            warm.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the catalog to be indexed");
+        }
+        if (warmUpFailure != null) {
+            throw new IllegalStateException("The catalog could not be indexed", warmUpFailure);
+        }
+    }
+
+    /**
+     * Runs the body as one journal transaction, so everything it changes is committed together. If the
+     * journal cannot write it, UncheckedIOException reaches the caller instead of a result, so the change
+     * is never reported as made; the journal then refuses every later change before it is applied, and
+     * reopening the library drops the change that was left in memory.
+     */
+    private <T> T atomically(Supplier<T> body) {
+        return journal == null ? body.get() : journal.transaction(body);
+    }
+
+    /** Called after each change, holding no locks, since compaction locks the stores itself. */
+    private void compactIfNeeded() {
+        if (journal != null) {
+            journal.compactIfNeeded();
+        }
+    }
+
+    /**
+     * Lends the copies on the shelf to the students waiting for the title, first in line first, until
+     * either runs out. Each hand-over takes the first hold off the waitlist in O(1). The caller holds
+     * the book's lock, in a journal transaction.
+     */
+    private void fillHolds(int bookId) {
+        while (holds.waitingCount(bookId) > 0 && catalog.adjustQuantity(bookId, -1)) {
+            Hold hold = holds.fill(bookId, System.currentTimeMillis());
+            Loan loan = loans.checkOut(bookId, hold.getBorrower(), LocalDate.now(), HOLD_LOAN_DAYS);
+            Book lent = catalog.get(bookId);
+            aggregates.lend(lent);
+            feed.publish(sequence -> ChangeEvent.issued(sequence, loan, loans.borrowerName(loan.getBorrowerId()), lent));
+        }
+    }
+
+    /** Stores the book in place of the previous version; the caller holds the book's lock. */
+    private void replace(Book previous, Book book) {
+        catalog.put(book.getId(), book);
+        indexLock.writeLock().lock();
+        try {
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(book);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /** Adds the book to the indexes and the running totals; the caller holds the book's lock. */
+    private void index(Book book) {
+        addToIndexes(book);
+        aggregates.add(book, loans.loanCount(book.getId()));
+    }
+
+    private void unindex(Book book) {
+        removeFromIndexes(book);
+        aggregates.remove(book, loans.loanCount(book.getId()));
+    }
+
+    private void addToIndexes(Book book) {
+        indexLock.writeLock().lock();
+        try {
+            textIndex.add(book);
+            facetIndex.add(book);
+            sortedViews.add(book);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private void removeFromIndexes(Book book) {
+        indexLock.writeLock().lock();
+        try {
+            textIndex.remove(book);
+            facetIndex.remove(book);
+            sortedViews.remove(book);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private static void checkPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+    }
+
+    private List<Book> books(int[] ids) {
+        List<Book> results = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Book book = catalog.get(id);
+            if (book != null) {
+                results.add(book);
+            }
+        }
+        return results;
+    }
+}
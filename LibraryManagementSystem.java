@@ -1,89 +1,16 @@
-import java.io.EOFException;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Scanner;
-import java.util.stream.Collectors;
-
-/**
- * A Serializable class to represent a book, replacing the 'struct books' from the C code.
- */
-class Book implements Serializable {
-    private static final long serialVersionUID = 1L; // Recommended for Serializable classes
-
-    private int id;
-    private String name;
-    private String author;
-    private int quantity;
-    private double price;
-    private int rackNo;
-    private String category;
-
-    // Fields for issued books
-    private String studentName;
-    private LocalDate issuedDate;
-    private LocalDate dueDate;
-
-    public Book(int id, String name, String author, int quantity, double price, int rackNo, String category) {
-        this.id = id;
-        this.name = name;
-        this.author = author;
-        this.quantity = quantity;
-        this.price = price;
-        this.rackNo = rackNo;
-        this.category = category;
-    }
-
-    // Getters
-    public int getId() { return id; }
-    public String getName() { return name; }
-    public String getAuthor() { return author; }
-    public int getQuantity() { return quantity; }
-    public double getPrice() { return price; }
-    public int getRackNo() { return rackNo; }
-    public String getCategory() { return category; }
-    public String getStudentName() { return studentName; }
-    public LocalDate getIssuedDate() { return issuedDate; }
-    public LocalDate getDueDate() { return dueDate; }
-
-    // Setters
-    public void setName(String name) { this.name = name; }
-    public void setAuthor(String author) { this.author = author; }
-    public void setQuantity(int quantity) { this.quantity = quantity; }
-    public void setPrice(double price) { this.price = price; }
-    public void setRackNo(int rackNo) { this.rackNo = rackNo; }
-
-    /**
-     * Sets the issue details for the book.
-     * @param studentName The name of the student issuing the book.
-     * @param returnTimeDays The number of days until the book is due.
-     */
-    public void issueBook(String studentName, int returnTimeDays) {
-        this.studentName = studentName;
-        this.issuedDate = LocalDate.now();
-        this.dueDate = this.issuedDate.plusDays(returnTimeDays);
-    }
-    
-    @Override
-    public String toString() {
-        return String.format("%-15s %-7d %-20s %-20s %-7d %-10.2f %-7d",
-                category, id, name, author, quantity, price, rackNo);
-    }
-
-    public String toIssuedString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-        return String.format("%-20s %-15s %-7d %-20s %-15s %-15s",
-                studentName, category, id, name, issuedDate.format(formatter), dueDate.format(formatter));
-    }
-}
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Main class for the Library Management System.
@@ -92,19 +19,122 @@ public class LibraryManagementSystem {
 
     private static final String BOOK_FILE = "library_books.dat";
     private static final String ISSUE_FILE = "issued_books.dat";
+    private static final String LOAN_FILE = "loans.dat";
+    private static final String HOLD_FILE = "holds.dat";
     private static final String PASSWORD = "code";
     private static final int RETURN_TIME = 15;
+    private static final String[] CATEGORIES = Book.CATEGORIES;
     private static final Scanner scanner = new Scanner(System.in);
-    private static final String[] CATEGORIES = {"Computer", "Electronics", "Electrical", "Civil", "Mechanical"};
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final int DEFAULT_PORT = 7070;
+    private static final int DEFAULT_FOLLOWER_PORT = 7071;
+    private static final int PAGE_SIZE = 20;
+    private static final int REPORT_SIZE = 10;
+    private static final int SUGGESTIONS = 10;
+    private static final RowFormatter rows = new RowFormatter();
+    private static final String JOURNAL_FILE = "library.journal";
+    private static final int DEFAULT_CACHE_MB = 64;
+    private static BookCache bookCache; // set by openLibrary when the catalog is on disk
+    // Opened in the background so the menu is up at once; library() waits for it
+    private static final CompletableFuture<LibraryService> opening =
+            CompletableFuture.supplyAsync(LibraryManagementSystem::openLibrary);
 
+    /**
+     * Runs the console menu. Other modes:
+     * "--serve [port]" serves the library to network clients (see LibraryServer) until the process is stopped;
+     * "--follow host:port [port]" keeps this directory's library a replica of the one served at host:port
+     * (see Follower) and serves it read-only, so it must be run in a directory of its own;
+     * "--import file" and "--export file" bulk load or dump the catalog as CSV or JSON lines (see BookFormat).
+     */
     public static void main(String[] args) {
-        if (passwordProtected()) {
-            mainMenu();
+        if (args.length > 0 && args[0].equals("--serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--follow")) {
+            follow(args[1], args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FOLLOWER_PORT);
+            return;
+        }
+        if (args.length == 2 && (args[0].equals("--import") || args[0].equals("--export"))) {
+            transfer(args[0], Paths.get(args[1]));
+            return;
+        }
+        try {
+            if (passwordProtected()) {
+                mainMenu();
+            }
+        } finally {
+            library().close();
         }
         scanner.close();
+        printStats();
         System.out.println("Application closed.");
     }
 
+    /**
+     * Starts the server and blocks; stopping the process (e.g. Ctrl+C) closes the server and the stores.
+     */
+    private static void serve(int port) {
+        try {
+            LibraryServer server = new LibraryServer(library(), port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                library().close();
+                printStats();
+                System.out.println("Server stopped.");
+            }));
+            System.out.println("Library server listening on localhost:" + server.port());
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            library().close();
+        }
+    }
+
+    /**
+     * Follows the leader and serves the replica read-only until the process is stopped. The library in
+     * the working directory is overwritten with the leader's.
+     */
+    private static void follow(String leader, int port) {
+        int colon = leader.lastIndexOf(':');
+        if (colon < 0) {
+            System.err.println("Error following " + leader + ": expected host:port");
+            library().close();
+            return;
+        }
+        try {
+            LibraryServer server = new LibraryServer(library(), port, true);
+            Follower follower = new Follower(library(), leader.substring(0, colon), Integer.parseInt(leader.substring(colon + 1)));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                follower.close();
+                library().close();
+                printStats();
+                System.out.println("Follower stopped.");
+            }));
+            System.out.println("Following " + leader + "; serving the replica read-only on localhost:" + server.port());
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            library().close();
+        }
+    }
+
+    private static void transfer(String mode, Path file) {
+        try {
+            long start = System.nanoTime();
+            if (mode.equals("--import")) {
+                System.out.println(new BookImporter(library()).importFile(file));
+            } else {
+                System.out.println("Exported " + new BookExporter(library()).exportFile(file) + " books to " + file + ".");
+            }
+            System.out.printf("Took %.1f s.%n", (System.nanoTime() - start) / 1e9);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error transferring " + file + ": " + e.getMessage());
+        } finally {
+            library().close();
+            printStats();
+        }
+    }
+
     /**
      * Clears the console screen using ANSI escape codes.
      * May not work in all terminals (e.g., standard Windows CMD).
@@ -153,7 +183,8 @@ public class LibraryManagementSystem {
             System.out.println("4. Issue Books");
             System.out.println("5. View Book list");
             System.out.println("6. Edit Book's Record");
-            System.out.println("7. Close Application");
+            System.out.println("7. Reports");
+            System.out.println("8. Close Application");
             System.out.println("===================================================");
             printCurrentTime();
             System.out.print("Enter your choice: ");
@@ -166,7 +197,8 @@ public class LibraryManagementSystem {
                 case "4": issueMenu(); break;
                 case "5": viewBooks(); break;
                 case "6": editBooks(); break;
-                case "7": exit = true; break;
+                case "7": reports(); break;
+                case "8": exit = true; break;
                 default:
                     System.out.println("Wrong Entry! Please enter a valid option.");
                     pressEnterToContinue();
@@ -196,7 +228,7 @@ public class LibraryManagementSystem {
         System.out.println("\n--------------- Enter Book Information ---------------");
         System.out.print("Book ID: ");
         int id = getIntInput();
-        if (findBookById(id, BOOK_FILE) != null) {
+        if (library().contains(id)) {
             System.out.println("A book with this ID already exists.");
             pressEnterToContinue();
             return;
@@ -214,11 +246,12 @@ public class LibraryManagementSystem {
         int rackNo = getIntInput();
 
         Book newBook = new Book(id, name, author, quantity, price, rackNo, category);
-        List<Book> books = readFromFile(BOOK_FILE);
-        books.add(newBook);
-        writeToFile(BOOK_FILE, books);
-
-        System.out.println("\nThe record is successfully saved.");
+        try {
+            library().addBook(newBook);
+            System.out.println("\nThe record is successfully saved.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("\nThe record could not be saved: " + e.getMessage());
+        }
         pressEnterToContinue();
     }
     
@@ -231,22 +264,14 @@ public class LibraryManagementSystem {
         System.out.print("Enter the Book ID to delete: ");
         int id = getIntInput();
 
-        List<Book> books = readFromFile(BOOK_FILE);
-        Book bookToDelete = null;
-        for (Book book : books) {
-            if (book.getId() == id) {
-                bookToDelete = book;
-                break;
-            }
-        }
+        Book bookToDelete = library().findBook(id);
 
         if (bookToDelete != null) {
             System.out.println("Book found: " + bookToDelete.getName());
             System.out.print("Do you want to delete it? (Y/N): ");
             String confirm = scanner.nextLine();
             if (confirm.equalsIgnoreCase("y")) {
-                books.remove(bookToDelete);
-                writeToFile(BOOK_FILE, books);
+                library().deleteBook(bookToDelete.getId());
                 System.out.println("The record was successfully deleted.");
             } else {
                 System.out.println("Deletion cancelled.");
@@ -258,39 +283,61 @@ public class LibraryManagementSystem {
     }
 
     /**
-     * Searches for books by ID or Name.
+     * Searches for books by ID, Name, keywords in the name and author, or category/rack/price.
      */
     private static void searchBooks() {
         clearConsole();
         System.out.println("--------------- Search Books ---------------");
         System.out.println("1. Search By ID");
         System.out.println("2. Search By Name");
+        System.out.println("3. Search By Title/Author Keywords");
+        System.out.println("4. Filter By Category/Rack/Price");
         System.out.print("Enter Your Choice: ");
         String choice = scanner.nextLine();
         
-        List<Book> books = readFromFile(BOOK_FILE);
         List<Book> results = new ArrayList<>();
+        String typed = null; // the text searched for, to suggest close matches when nothing is found
 
         if (choice.equals("1")) {
             System.out.print("Enter the book ID: ");
             int id = getIntInput();
-            results = books.stream().filter(b -> b.getId() == id).collect(Collectors.toList());
+            Book book = library().findBook(id);
+            if (book != null) {
+                results.add(book);
+            }
         } else if (choice.equals("2")) {
             System.out.print("Enter Book Name: ");
             String name = scanner.nextLine();
-            results = books.stream().filter(b -> b.getName().equalsIgnoreCase(name)).collect(Collectors.toList());
+            results = library().findByName(name);
+            typed = name;
+        } else if (choice.equals("3")) {
+            System.out.println("(All words must match; use OR for alternatives and word* for prefixes.)");
+            System.out.print("Enter Keywords: ");
+            String query = scanner.nextLine();
+            results = library().search(query);
+            typed = query;
+        } else if (choice.equals("4")) {
+            results = library().browse(readBookQuery());
         } else {
             System.out.println("Invalid choice.");
         }
 
+        if (results.isEmpty() && typed != null) {
+            results = library().fuzzySearch(typed, SUGGESTIONS);
+            if (!results.isEmpty()) {
+                System.out.println("\nNo exact match. Did you mean:");
+            }
+        } else if (!results.isEmpty()) {
+            System.out.println("\n--- Search Results ---");
+        }
         if (results.isEmpty()) {
             System.out.println("No Record Found.");
         } else {
-            System.out.println("\n--- Search Results ---");
-            System.out.printf("%-15s %-7s %-20s %-20s %-7s %-10s %-7s%n", 
-                "CATEGORY", "ID", "BOOK NAME", "AUTHOR", "QTY", "PRICE", "RACK NO");
+            System.out.println(RowFormatter.BOOK_HEADER);
             System.out.println("---------------------------------------------------------------------------------------------");
-            results.forEach(System.out::println);
+            for (Book book : results) {
+                System.out.println(rows.book(book));
+            }
         }
         pressEnterToContinue();
     }
@@ -304,6 +351,9 @@ public class LibraryManagementSystem {
         System.out.println("1. Issue a Book");
         System.out.println("2. View Issued Books");
         System.out.println("3. Remove Issued Book");
+        System.out.println("4. Overdue Report");
+        System.out.println("5. Books Due Soon");
+        System.out.println("6. Hold Queue");
         System.out.print("Enter a Choice: ");
         String choice = scanner.nextLine();
 
@@ -311,6 +361,9 @@ public class LibraryManagementSystem {
             case "1": issueBook(); break;
             case "2": viewIssuedBooks(); break;
             case "3": removeIssuedBook(); break;
+            case "4": overdueReport(); break;
+            case "5": dueSoon(); break;
+            case "6": holdQueue(); break;
             default: System.out.println("Invalid choice."); pressEnterToContinue(); break;
         }
     }
@@ -324,17 +377,7 @@ public class LibraryManagementSystem {
         System.out.print("Enter the Book ID: ");
         int id = getIntInput();
 
-        List<Book> libraryBooks = readFromFile(BOOK_FILE);
-        Book bookToIssue = null;
-        int bookIndex = -1;
-
-        for (int i = 0; i < libraryBooks.size(); i++) {
-            if (libraryBooks.get(i).getId() == id) {
-                bookToIssue = libraryBooks.get(i);
-                bookIndex = i;
-                break;
-            }
-        }
+        Book bookToIssue = library().findBook(id);
 
         if (bookToIssue != null) {
             if (bookToIssue.getQuantity() > 0) {
@@ -342,23 +385,18 @@ public class LibraryManagementSystem {
                 System.out.print("Enter student name: ");
                 String studentName = scanner.nextLine();
 
-                bookToIssue.issueBook(studentName, RETURN_TIME);
-                bookToIssue.setQuantity(bookToIssue.getQuantity() - 1);
-                
-                // Update the quantity in the main library file
-                libraryBooks.set(bookIndex, bookToIssue);
-                writeToFile(BOOK_FILE, libraryBooks);
-
-                // Add a record to the issued books file
-                List<Book> issuedBooks = readFromFile(ISSUE_FILE);
-                issuedBooks.add(bookToIssue);
-                writeToFile(ISSUE_FILE, issuedBooks);
-                
-                System.out.println("\nBook issued successfully.");
-                System.out.println("To be returned by: " + bookToIssue.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy")));
+                // Takes one copy out of stock and records the loan
+                Loan loan = library().issueBook(id, studentName, RETURN_TIME);
+                if (loan != null) {
+                    System.out.println("\nBook issued successfully. Loan ID: " + loan.getLoanId());
+                    System.out.println("To be returned by: " + loan.getDueDate().format(DATE_FORMAT));
+                } else {
+                    System.out.println("Book is out of stock.");
+                }
 
             } else {
-                System.out.println("Book is out of stock.");
+                System.out.println("Book is out of stock. Students waiting: " + library().holdsForBook(id).size());
+                offerHold(id);
             }
         } else {
             System.out.println("No record found for this ID in the library.");
@@ -366,25 +404,189 @@ public class LibraryManagementSystem {
         pressEnterToContinue();
     }
 
+    /**
+     * Offers to put a student on the waitlist of a title that is out of stock.
+     */
+    private static void offerHold(int bookId) {
+        System.out.print("Place a hold for a student? (Y/N): ");
+        if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+            return;
+        }
+        System.out.print("Enter student name: ");
+        String studentName = scanner.nextLine();
+        try {
+            Hold hold = library().placeHold(bookId, studentName);
+            if (hold == null) {
+                System.out.println("No record found for this ID in the library.");
+            } else {
+                System.out.println("\nHold placed. Hold ID: " + hold.getHoldId() + ", position in the queue: "
+                        + library().holdsForBook(bookId).size());
+                System.out.println("The next copy returned will be issued to the first student in the queue.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Hold not placed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lists the students waiting for a title, first in line first, and optionally cancels a hold.
+     */
+    private static void holdQueue() {
+        clearConsole();
+        System.out.println("--------------- Hold Queue ---------------");
+        System.out.print("Enter the Book ID: ");
+        int id = getIntInput();
+        List<Hold> waiting = library().holdsForBook(id);
+        if (waiting.isEmpty()) {
+            System.out.println("Nobody is waiting for this book.");
+            pressEnterToContinue();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        System.out.printf("%-4s %-7s %-20s %-12s%n", "POS", "HOLD ID", "STUDENT NAME", "DAYS WAITING");
+        System.out.println("----------------------------------------------");
+        for (int i = 0; i < waiting.size(); i++) {
+            Hold hold = waiting.get(i);
+            System.out.printf("%-4d %-7d %-20s %-12.1f%n", i + 1, hold.getHoldId(), hold.getBorrower(),
+                (now - hold.getPlacedMillis()) / (24 * 60 * 60 * 1000.0));
+        }
+        System.out.print("\nEnter a Hold ID to cancel (or press Enter to go back): ");
+        String cancel = scanner.nextLine().trim();
+        if (!cancel.isEmpty()) {
+            try {
+                System.out.println(library().cancelHold(Integer.parseInt(cancel)) ? "Hold cancelled." : "No such hold.");
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid Hold ID.");
+            }
+        }
+        pressEnterToContinue();
+    }
+
     /**
      * Displays a list of all currently issued books.
      */
     private static void viewIssuedBooks() {
         clearConsole();
         System.out.println("------------------------------------- Issued Book List -------------------------------------");
-        List<Book> issuedBooks = readFromFile(ISSUE_FILE);
+        Page<Loan> page = library().listLoans(null, PAGE_SIZE);
 
-        if (issuedBooks.isEmpty()) {
+        if (page.getItems().isEmpty()) {
             System.out.println("No books are currently issued.");
         } else {
-            System.out.printf("%-20s %-15s %-7s %-20s %-15s %-15s%n",
-                "STUDENT NAME", "CATEGORY", "ID", "BOOK NAME", "ISSUED DATE", "RETURN DATE");
-            System.out.println("----------------------------------------------------------------------------------------------------");
-            issuedBooks.forEach(b -> System.out.println(b.toIssuedString()));
+            System.out.println(RowFormatter.LOAN_HEADER);
+            System.out.println("------------------------------------------------------------------------------------------------------------");
+            while (true) {
+                for (Loan loan : page.getItems()) {
+                    System.out.println(rows.loan(loan, library().borrowerName(loan), library().findBook(loan.getBookId())));
+                }
+                if (!page.hasNext() || !morePages()) {
+                    break;
+                }
+                page = library().listLoans(page.getNextToken(), PAGE_SIZE);
+            }
         }
         pressEnterToContinue();
     }
     
+    /**
+     * Lists every overdue loan with the days it is late and the fine owed so far (see Loan.fine); loans
+     * that became overdue since the last report are marked NEW.
+     */
+    private static void overdueReport() {
+        clearConsole();
+        System.out.println("------------------------------------- Overdue Report -------------------------------------");
+        Set<Integer> newlyOverdue = new HashSet<>();
+        for (Loan loan : library().sweepOverdue()) {
+            newlyOverdue.add(loan.getLoanId());
+        }
+        List<Loan> overdue = library().overdueLoans();
+        if (overdue.isEmpty()) {
+            System.out.println("No books are overdue.");
+        } else {
+            LocalDate today = LocalDate.now();
+            double fines = 0;
+            System.out.printf("%-7s %-20s %-7s %-20s %-15s %-9s %-8s %-4s%n",
+                "LOAN ID", "STUDENT NAME", "ID", "BOOK NAME", "RETURN DATE", "DAYS LATE", "FINE", "");
+            System.out.println("---------------------------------------------------------------------------------------------------");
+            for (Loan loan : overdue) {
+                Book book = library().findBook(loan.getBookId());
+                System.out.printf("%-7d %-20s %-7d %-20s %-15s %-9d %-8.2f %-4s%n",
+                    loan.getLoanId(), library().borrowerName(loan), loan.getBookId(),
+                    book == null ? "(deleted)" : book.getName(), loan.getDueDate().format(DATE_FORMAT),
+                    loan.daysLate(today), loan.fine(today), newlyOverdue.contains(loan.getLoanId()) ? "NEW" : "");
+                fines += loan.fine(today);
+            }
+            System.out.println("---------------------------------------------------------------------------------------------------");
+            System.out.println("Overdue = " + overdue.size() + " (" + newlyOverdue.size() + " new since the last report)");
+            System.out.printf("Fines owed = %.2f%n", fines);
+        }
+        pressEnterToContinue();
+    }
+
+    /**
+     * Lists the loans due back within a number of days.
+     */
+    private static void dueSoon() {
+        clearConsole();
+        System.out.println("--------------- Books Due Soon ---------------");
+        System.out.print("Due within how many days? ");
+        int days = getIntInput();
+        while (days < 0) {
+            System.out.print("Invalid input. Please enter 0 or more days: ");
+            days = getIntInput();
+        }
+        List<Loan> due = library().dueWithin(days);
+        if (due.isEmpty()) {
+            System.out.println("No books are due in that period.");
+        } else {
+            System.out.printf("%-7s %-20s %-7s %-20s %-15s%n", "LOAN ID", "STUDENT NAME", "ID", "BOOK NAME", "RETURN DATE");
+            System.out.println("------------------------------------------------------------------------");
+            for (Loan loan : due) {
+                Book book = library().findBook(loan.getBookId());
+                System.out.printf("%-7d %-20s %-7d %-20s %-15s%n",
+                    loan.getLoanId(), library().borrowerName(loan), loan.getBookId(),
+                    book == null ? "(deleted)" : book.getName(), loan.getDueDate().format(DATE_FORMAT));
+            }
+        }
+        pressEnterToContinue();
+    }
+
+    /**
+     * Shows the inventory value per category, rack utilization, the most borrowed titles and most
+     * active students, and the longest hold queues.
+     */
+    private static void reports() {
+        clearConsole();
+        System.out.println("------------------------------------- Reports -------------------------------------");
+        List<Reports.CategoryValue> inventory = library().inventoryValue();
+        System.out.printf("%-15s %-7s %-7s %-12s%n", "CATEGORY", "TITLES", "COPIES", "VALUE");
+        for (Reports.CategoryValue row : inventory) {
+            System.out.printf("%-15s %-7d %-7d %-12.2f%n", row.getCategory(), row.getTitles(), row.getCopies(), row.getValue());
+        }
+        System.out.printf("%n%-7s %-9s %-9s %-11s%n", "RACK NO", "ON SHELF", "ON LOAN", "UTILIZATION");
+        for (Reports.RackUsage row : library().rackUsage()) {
+            System.out.printf("%-7d %-9d %-9d %.1f%%%n", row.getRackNo(), row.getOnShelf(), row.getOnLoan(),
+                row.getUtilization() * 100);
+        }
+        System.out.printf("%n%-7s %-20s %-7s%n", "ID", "MOST BORROWED", "ISSUES");
+        for (Reports.TitleCount row : library().topBorrowed(REPORT_SIZE)) {
+            System.out.printf("%-7d %-20s %-7d%n", row.getBookId(), row.getName() == null ? "(deleted)" : row.getName(),
+                row.getIssues());
+        }
+        System.out.printf("%n%-20s %-7s %-7s%n", "STUDENT NAME", "ISSUES", "ON LOAN");
+        for (Reports.BorrowerCount row : library().topBorrowers(REPORT_SIZE)) {
+            System.out.printf("%-20s %-7d %-7d%n", row.getName(), row.getIssues(), row.getCurrent());
+        }
+        List<Reports.HoldQueue> queues = library().holdQueues();
+        System.out.printf("%n%-7s %-20s %-8s %-13s %-7s %-13s%n", "ID", "HOLD QUEUE", "WAITING", "LONGEST WAIT", "FILLED", "AVERAGE WAIT");
+        for (Reports.HoldQueue row : queues.subList(0, Math.min(REPORT_SIZE, queues.size()))) {
+            System.out.printf("%-7d %-20s %-8d %-13s %-7d %-13s%n", row.getBookId(), row.getName() == null ? "(deleted)" : row.getName(),
+                row.getWaiting(), String.format("%.1f days", row.getLongestWaitDays()), row.getFilled(),
+                String.format("%.1f days", row.getAverageWaitDays()));
+        }
+        pressEnterToContinue();
+    }
+
     /**
      * Removes a book record from the issued list (book return).
      */
@@ -394,35 +596,39 @@ public class LibraryManagementSystem {
         System.out.print("Enter the Book ID to return: ");
         int id = getIntInput();
 
-        List<Book> issuedBooks = readFromFile(ISSUE_FILE);
-        Book returnedBook = null;
-        for (Book book : issuedBooks) {
-            if (book.getId() == id) {
-                returnedBook = book;
-                break;
-            }
-        }
+        List<Loan> loans = library().loansForBook(id);
+        Loan loanToEnd = null;
 
-        if (returnedBook != null) {
-            // Remove from issued list
-            issuedBooks.remove(returnedBook);
-            writeToFile(ISSUE_FILE, issuedBooks);
-
-            // Increment quantity in the main library
-            List<Book> libraryBooks = readFromFile(BOOK_FILE);
-            for (int i = 0; i < libraryBooks.size(); i++) {
-                if (libraryBooks.get(i).getId() == id) {
-                    Book libBook = libraryBooks.get(i);
-                    libBook.setQuantity(libBook.getQuantity() + 1);
-                    libraryBooks.set(i, libBook);
+        if (loans.size() == 1) {
+            loanToEnd = loans.get(0);
+        } else if (loans.size() > 1) {
+            // Several students hold a copy: ask whose copy is coming back
+            for (Loan loan : loans) {
+                System.out.println("  " + library().borrowerName(loan) + " (due " + loan.getDueDate().format(DATE_FORMAT) + ")");
+            }
+            System.out.print("Enter student name: ");
+            String studentName = scanner.nextLine().trim();
+            for (Loan loan : loans) {
+                if (library().borrowerName(loan).trim().equalsIgnoreCase(studentName)) {
+                    loanToEnd = loan;
                     break;
                 }
             }
-            writeToFile(BOOK_FILE, libraryBooks);
+        }
 
-            System.out.println("Book has been successfully returned.");
-        } else {
+        if (loanToEnd != null) {
+            // Ends the loan and puts the copy back in stock, or hands it to the first student waiting
+            List<Hold> waiting = library().holdsForBook(id);
+            Hold first = waiting.isEmpty() ? null : waiting.get(0);
+            library().returnBook(loanToEnd.getLoanId());
+            System.out.println("Book has been successfully returned by " + library().borrowerName(loanToEnd) + ".");
+            if (first != null && library().holdsForBook(id).stream().noneMatch(hold -> hold.getHoldId() == first.getHoldId())) {
+                System.out.println("The copy has been issued to " + first.getBorrower() + ", first in the hold queue.");
+            }
+        } else if (loans.isEmpty()) {
             System.out.println("No issued book found with that ID.");
+        } else {
+            System.out.println("No copy of this book is issued to that student.");
         }
         pressEnterToContinue();
     }
@@ -433,20 +639,27 @@ public class LibraryManagementSystem {
     private static void viewBooks() {
         clearConsole();
         System.out.println("-------------------------------------- Book List --------------------------------------");
-        List<Book> books = readFromFile(BOOK_FILE);
-        if (books.isEmpty()) {
+        System.out.print("Sort by 1. ID  2. Name  3. Category (or press Enter for ID): ");
+        String sort = scanner.nextLine().trim();
+        BookOrder order = sort.equals("2") ? BookOrder.NAME : sort.equals("3") ? BookOrder.CATEGORY : BookOrder.ID;
+
+        Page<Book> page = library().listBooks(order, null, PAGE_SIZE);
+        if (page.getItems().isEmpty()) {
             System.out.println("The library is empty.");
         } else {
-            System.out.printf("%-15s %-7s %-20s %-20s %-7s %-10s %-7s%n", 
-                "CATEGORY", "ID", "BOOK NAME", "AUTHOR", "QTY", "PRICE", "RACK NO");
+            System.out.println(RowFormatter.BOOK_HEADER);
             System.out.println("---------------------------------------------------------------------------------------------");
-            int totalBooks = 0;
-            for (Book book : books) {
-                System.out.println(book);
-                totalBooks += book.getQuantity();
+            while (true) {
+                for (Book book : page.getItems()) {
+                    System.out.println(rows.book(book));
+                }
+                if (!page.hasNext() || !morePages()) {
+                    break;
+                }
+                page = library().listBooks(order, page.getNextToken(), PAGE_SIZE);
             }
             System.out.println("---------------------------------------------------------------------------------------------");
-            System.out.println("Total Books = " + totalBooks);
+            System.out.println("Total Books = " + library().totalQuantity());
         }
         pressEnterToContinue();
     }
@@ -460,44 +673,38 @@ public class LibraryManagementSystem {
         System.out.print("Enter Book ID to be edited: ");
         int id = getIntInput();
 
-        List<Book> books = readFromFile(BOOK_FILE);
-        Book bookToEdit = null;
-        int bookIndex = -1;
+        Book storedBook = library().findBook(id);
 
-        for (int i = 0; i < books.size(); i++) {
-            if (books.get(i).getId() == id) {
-                bookToEdit = books.get(i);
-                bookIndex = i;
-                break;
-            }
-        }
-
-        if (bookToEdit != null) {
-            System.out.println("Book Found. Current details: " + bookToEdit.getName());
-            System.out.print("Enter new name (or press Enter to keep '" + bookToEdit.getName() + "'): ");
+        if (storedBook != null) {
+            System.out.println("Book Found. Current details: " + storedBook.getName());
+            System.out.print("Enter new name (or press Enter to keep '" + storedBook.getName() + "'): ");
             String newName = scanner.nextLine();
-            if (!newName.isEmpty()) bookToEdit.setName(newName);
 
-            System.out.print("Enter new Author (or press Enter to keep '" + bookToEdit.getAuthor() + "'): ");
+            System.out.print("Enter new Author (or press Enter to keep '" + storedBook.getAuthor() + "'): ");
             String newAuthor = scanner.nextLine();
-            if (!newAuthor.isEmpty()) bookToEdit.setAuthor(newAuthor);
 
-            System.out.print("Enter new quantity (or press Enter to keep '" + bookToEdit.getQuantity() + "'): ");
+            System.out.print("Enter new quantity (or press Enter to keep '" + storedBook.getQuantity() + "'): ");
             String newQtyStr = scanner.nextLine();
-            if (!newQtyStr.isEmpty()) bookToEdit.setQuantity(Integer.parseInt(newQtyStr));
 
-            System.out.print("Enter new price (or press Enter to keep '" + bookToEdit.getPrice() + "'): ");
+            System.out.print("Enter new price (or press Enter to keep '" + storedBook.getPrice() + "'): ");
             String newPriceStr = scanner.nextLine();
-            if (!newPriceStr.isEmpty()) bookToEdit.setPrice(Double.parseDouble(newPriceStr));
             
-            System.out.print("Enter new rack number (or press Enter to keep '" + bookToEdit.getRackNo() + "'): ");
+            System.out.print("Enter new rack number (or press Enter to keep '" + storedBook.getRackNo() + "'): ");
             String newRackStr = scanner.nextLine();
-            if (!newRackStr.isEmpty()) bookToEdit.setRackNo(Integer.parseInt(newRackStr));
             
-            books.set(bookIndex, bookToEdit);
-            writeToFile(BOOK_FILE, books);
-
-            System.out.println("\nThe record has been modified.");
+            // Applied to the book as it is now, in case another desk changed it meanwhile
+            try {
+                Book edited = library().editBook(id, bookToEdit -> {
+                    if (!newName.isEmpty()) bookToEdit.setName(newName);
+                    if (!newAuthor.isEmpty()) bookToEdit.setAuthor(newAuthor);
+                    if (!newQtyStr.isEmpty()) bookToEdit.setQuantity(Integer.parseInt(newQtyStr));
+                    if (!newPriceStr.isEmpty()) bookToEdit.setPrice(Double.parseDouble(newPriceStr));
+                    if (!newRackStr.isEmpty()) bookToEdit.setRackNo(Integer.parseInt(newRackStr));
+                });
+                System.out.println(edited != null ? "\nThe record has been modified." : "\nThe book was deleted meanwhile.");
+            } catch (IllegalArgumentException e) {
+                System.out.println("\nThe record could not be saved: " + e.getMessage());
+            }
         } else {
             System.out.println("No record found for that ID.");
         }
@@ -526,47 +733,137 @@ public class LibraryManagementSystem {
         }
     }
 
+    /** Like getIntInput, but an empty line returns null. */
+    private static Integer getOptionalIntInput() {
+        while (true) {
+            String line = scanner.nextLine();
+            if (line.isEmpty()) {
+                return null;
+            }
+            try {
+                return Integer.parseInt(line);
+            } catch (NumberFormatException e) {
+                System.out.print("Invalid input. Please enter a number, or press Enter to skip: ");
+            }
+        }
+    }
+
+    /** Like getDoubleInput, but an empty line returns null. */
+    private static Double getOptionalDoubleInput() {
+        while (true) {
+            String line = scanner.nextLine();
+            if (line.isEmpty()) {
+                return null;
+            }
+            try {
+                return Double.parseDouble(line);
+            } catch (NumberFormatException e) {
+                System.out.print("Invalid input. Please enter a number, or press Enter to skip: ");
+            }
+        }
+    }
+
+    /**
+     * Prompts for optional category, rack and price filters; pressing Enter skips a filter.
+     */
+    private static BookQuery readBookQuery() {
+        BookQuery query = new BookQuery();
+        System.out.println("0. Any category");
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            System.out.printf("%d. %s%n", i + 1, CATEGORIES[i]);
+        }
+        System.out.print("Category: ");
+        int categoryChoice = getIntInput();
+        if (categoryChoice > 0 && categoryChoice <= CATEGORIES.length) {
+            query.category(CATEGORIES[categoryChoice - 1]);
+        }
+        System.out.print("Rack No (or press Enter for any): ");
+        Integer rack = getOptionalIntInput();
+        if (rack != null) query.rack(rack);
+        System.out.print("Minimum price (or press Enter for any): ");
+        Double minPrice = getOptionalDoubleInput();
+        if (minPrice != null) query.priceAtLeast(minPrice);
+        System.out.print("Price below (or press Enter for any): ");
+        Double maxPrice = getOptionalDoubleInput();
+        if (maxPrice != null) query.priceBelow(maxPrice);
+        return query;
+    }
+
+    /** Asks whether to show the next page of a listing. */
+    private static boolean morePages() {
+        System.out.print("-- Press Enter for the next page, or Q to stop: ");
+        return !scanner.nextLine().trim().equalsIgnoreCase("q");
+    }
+
     private static void pressEnterToContinue() {
         System.out.println("\nPress ENTER to continue...");
         scanner.nextLine();
     }
 
-    private static void printCurrentTime() {
-        System.out.println("Date and time: " + LocalDate.now().format(DateTimeFormatter.ofPattern("dd-MM-yyyy")));
+    /** Returns the library, waiting for it to finish opening. */
+    private static LibraryService library() {
+        if (!opening.isDone()) {
+            System.out.println("Opening the library...");
+        }
+        try {
+            return opening.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
     }
 
-    private static Book findBookById(int id, String filename) {
-        List<Book> books = readFromFile(filename);
-        for (Book book : books) {
-            if (book.getId() == id) {
-                return book;
+    /**
+     * Opens the stores and the journal they share. The catalog backend is selected by the "lms.store"
+     * system property: "mapped" for the memory-mapped slot store (a one-way conversion of an existing
+     * catalog file), "columnar" for the snapshot store with its books in off-heap columns, otherwise the
+     * snapshot store. The mapped store is read through a BookCache of "lms.cache.mb" megabytes
+     * (default 64, 0 for none). With -Dlms.metrics=true every library call is timed (see Metrics) and
+     * the metrics are published over JMX. The library indexes the catalog on a background thread
+     * (see Library.warmingUp).
+     */
+    private static LibraryService openLibrary() {
+        long start = Metrics.start();
+        try {
+            Journal journal = Journal.open(Paths.get(JOURNAL_FILE));
+            BookRepository catalog;
+            if ("mapped".equals(System.getProperty("lms.store"))) {
+                catalog = MappedBookStore.open(BOOK_FILE, journal);
+                int cacheMb = Integer.getInteger("lms.cache.mb", DEFAULT_CACHE_MB);
+                if (cacheMb > 0) {
+                    bookCache = new BookCache(catalog, cacheMb * 1024L * 1024);
+                    catalog = bookCache;
+                }
+            } else if ("columnar".equals(System.getProperty("lms.store"))) {
+                catalog = BookStore.journaledColumnar(BOOK_FILE, journal);
+            } else {
+                catalog = BookStore.journaled(BOOK_FILE, journal);
+            }
+            LoanStore loans = LoanStore.open(LOAN_FILE, ISSUE_FILE, journal);
+            HoldStore holds = HoldStore.open(HOLD_FILE, journal);
+            journal.recover();
+            Library opened = Library.warmingUp(catalog, loans, holds, journal);
+            Metrics.timer("library.open").stop(start);
+            if (!Metrics.ENABLED) {
+                return opened;
             }
+            Metrics.registerMBean();
+            return new InstrumentedLibrary(opened);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening " + JOURNAL_FILE, e);
         }
-        return null;
     }
-    
-    @SuppressWarnings("unchecked")
-    private static List<Book> readFromFile(String filename) {
-        List<Book> books = new ArrayList<>();
-        File file = new File(filename);
-        if (!file.exists()) {
-            return books; // Return empty list if file doesn't exist yet
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            books = (List<Book>) ois.readObject();
-        } catch (EOFException e) {
-            // This is fine, means file is empty
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error reading from file: " + e.getMessage());
-        }
-        return books;
-    }
-
-    private static void writeToFile(String filename, List<Book> books) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(books);
-        } catch (IOException e) {
-            System.err.println("Error writing to file: " + e.getMessage());
+
+    private static void printStats() {
+        if (bookCache != null) {
+            System.out.println("Book cache: " + bookCache.stats());
+        }
+        if (Metrics.ENABLED) {
+            System.out.println();
+            System.out.print(Metrics.dump());
         }
     }
-}
\ No newline at end of file
+
+    private static void printCurrentTime() {
+        System.out.println("Date and time: " + LocalDate.now().format(DATE_FORMAT));
+    }
+}
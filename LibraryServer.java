@@ -0,0 +1,323 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a LibraryService to local clients (kiosks, self-checkout) over a line protocol on TCP.
+ *
+ * Each connection is handled by its own task, on a virtual thread where the runtime has them
+ * (Java 21+) and on a pooled platform thread otherwise, so thousands of mostly idle clients are cheap.
+ *
+ * Protocol: one request per line, fields separated by tabs. The reply is "OK n" followed by n
+ * tab-separated rows, or "ERR message". Commands:
+ * <pre>
+ *   GET id                  LIST                   SEARCH keywords          NAME title
+ *   FUZZY words [limit]     (typo-tolerant search, fewest edits first; limit defaults to 10)
+ *   PAGE order size [token] (order ID, NAME or CATEGORY; the reply is "OK n next-token" while more remain)
+ *   ADD id name author quantity price rackNo category
+ *   EDIT id name author quantity price rackNo     (empty field = keep)
+ *   DELETE id               ISSUE id student [days]                         RETURN loanId
+ *   LOANS                   OVERDUE                DUE days                 QUIT
+ *   HOLD id student         HOLDS id               CANCEL holdId            (waitlists of out of stock titles)
+ *   METRICS                 (the metrics dump, one line per row; empty unless -Dlms.metrics=true)
+ *   REPORT kind [limit]     (kind INVENTORY, RACKS, TITLES, STUDENTS or HOLDS; limit defaults to 10)
+ *   SNAPSHOT                (the reply is "OK n epoch sequence", a change row per book and per loan out, then issue counts)
+ *   CHANGES epoch sequence [waitMillis]            (up to 1000 change rows after the sequence number)
+ * </pre>
+ * Book rows are id, name, author, quantity, price, rackNo, category; loan rows are loan id, book id,
+ * student, issued date, due date (ISO); hold rows are hold id, book id, student, time placed (ISO).
+ * Report rows are category, titles, copies, value; rackNo, on shelf, on loan, utilization; book id,
+ * name, issues; student, issues, on loan; and book id, name, waiting, longest wait (days), holds
+ * filled, average wait (days). Change rows
+ * are ChangeEvent rows, and snapshot rows are as ChangeFeed.Snapshot writes them; see Follower, which
+ * keeps a replica in step with them.
+ *
+ * A read-only server, serving a follower's replica, refuses the commands that change the library and
+ * the replication commands (a follower does not feed others).
+ */
+class LibraryServer implements Closeable {
+
+    private static final int DEFAULT_LOAN_DAYS = 15;
+    private static final int MAX_CHANGES = 1000;
+    private static final long MAX_WAIT_MILLIS = 60_000;
+    private static final Set<String> WRITES = Set.of("ADD", "EDIT", "DELETE", "ISSUE", "RETURN", "HOLD", "CANCEL",
+            "SNAPSHOT", "CHANGES");
+
+    private final LibraryService library;
+    private final boolean readOnly;
+    private final ServerSocket socket;
+    private final ExecutorService handlers = newHandlerExecutor();
+    private final Thread acceptor;
+
+    /** Starts listening on the loopback interface; port 0 picks a free port. */
+    LibraryServer(LibraryService library, int port) throws IOException {
+        this(library, port, false);
+    }
+
+    /** Starts listening on the loopback interface; a read-only server only answers queries. */
+    LibraryServer(LibraryService library, int port, boolean readOnly) throws IOException {
+        this.library = library;
+        this.readOnly = readOnly;
+        this.socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::acceptLoop, "library-server-accept");
+        acceptor.start();
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+            acceptor.join();
+        } catch (IOException e) {
+            System.err.println("Error closing server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handlers.shutdownNow();
+    }
+
+    /**
+     * One virtual thread per task when the runtime supports it. Looked up reflectively so the code
+     * still compiles and runs on Java 17.
+     */
+    private static ExecutorService newHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                handlers.execute(() -> serve(client));
+            } catch (SocketException e) {
+                // closed
+            } catch (IOException e) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket connection = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals("QUIT")) {
+                    break;
+                }
+                out.write(handle(line));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    /** Runs one request line and returns the full reply, newline-terminated. */
+    String handle(String line) {
+        String[] args = line.split("\t", -1);
+        if (readOnly && WRITES.contains(args[0])) {
+            return error("This server is a read-only replica; send changes to the library it follows");
+        }
+        try {
+            switch (args[0]) {
+                case "GET": {
+                    Book book = library.findBook(intArg(args, 1));
+                    return book == null ? error("No record found for that ID") : books(List.of(book));
+                }
+                case "LIST": return books(library.listBooks());
+                case "PAGE": {
+                    Page<Book> page = library.listBooks(BookOrder.valueOf(arg(args, 1).toUpperCase()),
+                            args.length > 3 && !args[3].isEmpty() ? args[3] : null, intArg(args, 2));
+                    String reply = books(page.getItems());
+                    return page.hasNext() ? reply.replaceFirst("\n", " " + page.getNextToken() + "\n") : reply;
+                }
+                case "SEARCH": return books(library.search(arg(args, 1)));
+                case "NAME": return books(library.findByName(arg(args, 1)));
+                case "FUZZY": return books(library.fuzzySearch(arg(args, 1), args.length > 2 ? intArg(args, 2) : 10));
+                case "ADD": {
+                    library.addBook(new Book(intArg(args, 1), arg(args, 2), arg(args, 3), intArg(args, 4),
+                            Double.parseDouble(arg(args, 5)), intArg(args, 6), category(arg(args, 7))));
+                    return ok(List.of());
+                }
+                case "EDIT": {
+                    Book edited = library.editBook(intArg(args, 1), book -> {
+                        if (!arg(args, 2).isEmpty()) book.setName(args[2]);
+                        if (!arg(args, 3).isEmpty()) book.setAuthor(args[3]);
+                        if (!arg(args, 4).isEmpty()) book.setQuantity(Integer.parseInt(args[4]));
+                        if (!arg(args, 5).isEmpty()) book.setPrice(Double.parseDouble(args[5]));
+                        if (!arg(args, 6).isEmpty()) book.setRackNo(Integer.parseInt(args[6]));
+                    });
+                    return edited == null ? error("No record found for that ID") : books(List.of(edited));
+                }
+                case "DELETE":
+                    return library.deleteBook(intArg(args, 1)) ? ok(List.of()) : error("No record found for that ID");
+                case "ISSUE": {
+                    int days = args.length > 3 && !args[3].isEmpty() ? Integer.parseInt(args[3]) : DEFAULT_LOAN_DAYS;
+                    Loan loan = library.issueBook(intArg(args, 1), arg(args, 2), days);
+                    return loan == null ? error("Book is out of stock or does not exist") : loans(List.of(loan));
+                }
+                case "RETURN": {
+                    Loan loan = library.returnBook(intArg(args, 1));
+                    return loan == null ? error("No such loan") : loans(List.of(loan));
+                }
+                case "HOLD": {
+                    Hold hold = library.placeHold(intArg(args, 1), arg(args, 2));
+                    return hold == null ? error("No record found for that ID") : holds(List.of(hold));
+                }
+                case "HOLDS": return holds(library.holdsForBook(intArg(args, 1)));
+                case "CANCEL":
+                    return library.cancelHold(intArg(args, 1)) ? ok(List.of()) : error("No such hold");
+                case "LOANS": return loans(library.listLoans());
+                case "OVERDUE": return loans(library.overdueLoans());
+                case "DUE": return loans(library.dueWithin(intArg(args, 1)));
+                case "REPORT": return report(arg(args, 1), args.length > 2 ? intArg(args, 2) : 10);
+                case "SNAPSHOT": {
+                    ChangeFeed.Snapshot snapshot = library.replicaSnapshot();
+                    return ok(snapshot.toRows())
+                            .replaceFirst("\n", " " + snapshot.getEpoch() + " " + snapshot.getSequence() + "\n");
+                }
+                case "CHANGES": {
+                    long wait = args.length > 3 && !args[3].isEmpty() ? Long.parseLong(args[3]) : 0;
+                    return changes(library.changesAfter(Long.parseLong(arg(args, 1)), Long.parseLong(arg(args, 2)),
+                            MAX_CHANGES, Math.min(Math.max(wait, 0), MAX_WAIT_MILLIS)));
+                }
+                case "METRICS": return ok(Metrics.ENABLED ? List.of(Metrics.dump().split("\\R")) : List.of());
+                default: return error("Unknown command: " + args[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error handling request: " + e);
+            return error("Internal error");
+        }
+    }
+
+    private static String arg(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing argument " + index + " for " + args[0]);
+        }
+        return args[index];
+    }
+
+    private static int intArg(String[] args, int index) {
+        return Integer.parseInt(arg(args, index));
+    }
+
+    private static String category(String name) {
+        for (String category : Book.CATEGORIES) {
+            if (category.equalsIgnoreCase(name)) {
+                return category;
+            }
+        }
+        throw new IllegalArgumentException("Unknown category: " + name);
+    }
+
+    private String report(String kind, int limit) {
+        List<String> rows = new ArrayList<>();
+        switch (kind.toUpperCase()) {
+            case "INVENTORY":
+                for (Reports.CategoryValue row : library.inventoryValue()) {
+                    rows.add(row.getCategory() + "\t" + row.getTitles() + "\t" + row.getCopies() + "\t" + row.getValue());
+                }
+                break;
+            case "RACKS":
+                for (Reports.RackUsage row : library.rackUsage()) {
+                    rows.add(row.getRackNo() + "\t" + row.getOnShelf() + "\t" + row.getOnLoan() + "\t" + row.getUtilization());
+                }
+                break;
+            case "TITLES":
+                for (Reports.TitleCount row : library.topBorrowed(limit)) {
+                    rows.add(row.getBookId() + "\t" + clean(String.valueOf(row.getName())) + "\t" + row.getIssues());
+                }
+                break;
+            case "STUDENTS":
+                for (Reports.BorrowerCount row : library.topBorrowers(limit)) {
+                    rows.add(clean(row.getName()) + "\t" + row.getIssues() + "\t" + row.getCurrent());
+                }
+                break;
+            case "HOLDS":
+                for (Reports.HoldQueue row : library.holdQueues()) {
+                    rows.add(row.getBookId() + "\t" + clean(String.valueOf(row.getName())) + "\t" + row.getWaiting() + "\t"
+                            + row.getLongestWaitDays() + "\t" + row.getFilled() + "\t" + row.getAverageWaitDays());
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown report: " + kind);
+        }
+        return ok(rows);
+    }
+
+    private String books(List<Book> books) {
+        List<String> rows = new ArrayList<>(books.size());
+        for (Book book : books) {
+            rows.add(book.getId() + "\t" + clean(book.getName()) + "\t" + clean(book.getAuthor()) + "\t"
+                    + book.getQuantity() + "\t" + book.getPrice() + "\t" + book.getRackNo() + "\t" + book.getCategory());
+        }
+        return ok(rows);
+    }
+
+    private String loans(List<Loan> loans) {
+        List<String> rows = new ArrayList<>(loans.size());
+        for (Loan loan : loans) {
+            rows.add(loan.getLoanId() + "\t" + loan.getBookId() + "\t" + clean(library.borrowerName(loan)) + "\t"
+                    + loan.getIssuedDate() + "\t" + loan.getDueDate());
+        }
+        return ok(rows);
+    }
+
+    private static String holds(List<Hold> holds) {
+        List<String> rows = new ArrayList<>(holds.size());
+        for (Hold hold : holds) {
+            rows.add(hold.getHoldId() + "\t" + hold.getBookId() + "\t" + clean(hold.getBorrower()) + "\t" + hold.getPlacedAt());
+        }
+        return ok(rows);
+    }
+
+    private static String changes(List<ChangeEvent> events) {
+        List<String> rows = new ArrayList<>(events.size());
+        for (ChangeEvent event : events) {
+            rows.add(event.toRow());
+        }
+        return ok(rows);
+    }
+
+    private static String ok(List<String> rows) {
+        StringBuilder reply = new StringBuilder("OK ").append(rows.size()).append('\n');
+        for (String row : rows) {
+            reply.append(row).append('\n');
+        }
+        return reply.toString();
+    }
+
+    private static String error(String message) {
+        return "ERR " + clean(String.valueOf(message)) + "\n";
+    }
+
+    /** Keeps a value on one field of one line. */
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
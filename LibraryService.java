@@ -0,0 +1,146 @@
+import java.io.Closeable;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The library operations, independent of how they are driven: the console menu and the network
+ * server are both clients of this interface. Implementations must be safe to call from many threads.
+ */
+interface LibraryService extends Closeable {
+
+    /** Returns the book with the given id, or null. */
+    Book findBook(int id);
+
+    boolean contains(int id);
+
+    List<Book> listBooks();
+
+    /**
+     * Returns one page of the catalog in the given order, continuing from a token returned with an
+     * earlier page (null for the first page). Throws IllegalArgumentException for an invalid token.
+     */
+    Page<Book> listBooks(BookOrder order, String pageToken, int pageSize);
+
+    /** Stores a new book. Throws IllegalArgumentException if the id is taken or the book cannot be stored. */
+    void addBook(Book book);
+
+    /**
+     * Stores a batch of new books with a single flush, skipping any whose id is already taken.
+     * Throws IllegalArgumentException, storing none of them, if one cannot be stored.
+     * @return the number of books added.
+     */
+    int addBooks(List<Book> books);
+
+    /**
+     * Passes every book to the action without collecting them into a list. The book may be a read-only
+     * view that is only valid during the call; copy it to keep it.
+     */
+    void forEachBook(Consumer<? super Book> action);
+
+    /** The number of copies of all books in the catalog. */
+    long totalQuantity();
+
+    /** Replaces the stored book that has the same id. */
+    void updateBook(Book book);
+
+    /**
+     * Applies the changes to a copy of the current book and stores it atomically.
+     * @return the stored book, or null if there is no book with that id.
+     */
+    Book editBook(int id, Consumer<Book> changes);
+
+    boolean deleteBook(int id);
+
+    /** Returns the books whose name equals the given one, ignoring case. */
+    List<Book> findByName(String name);
+
+    /** Keyword search over names and authors, best matches first. */
+    List<Book> search(String query);
+
+    /**
+     * Typo-tolerant search over names and authors ("did you mean"), fewest edits first, at most limit
+     * books. Throws IllegalArgumentException if limit is below 1.
+     */
+    List<Book> fuzzySearch(String query, int limit);
+
+    /** Returns the books matching a category/rack/price query, in id order. */
+    List<Book> browse(BookQuery query);
+
+    /**
+     * Lends one copy of a book. Throws IllegalArgumentException if the loan period is under a day.
+     * @return the new loan, or null if there is no such book or no copy is left.
+     */
+    Loan issueBook(int bookId, String borrower, int loanDays);
+
+    /**
+     * Ends a loan and puts the copy back in stock, or lends it to the first student waiting for it.
+     * @return the finished loan, or null if there was no such loan.
+     */
+    Loan returnBook(int loanId);
+
+    /**
+     * Puts the student on the waitlist of a title with no copy on the shelf; the next copy to come back
+     * is lent to the first student waiting. Throws IllegalArgumentException if a copy is on the shelf
+     * or the student is already waiting for it.
+     * @return the hold, or null if there is no such book.
+     */
+    Hold placeHold(int bookId, String borrower);
+
+    /** Takes a hold off its waitlist. @return false if there was no such hold waiting. */
+    boolean cancelHold(int holdId);
+
+    /** The holds waiting for a title, first in line first. */
+    List<Hold> holdsForBook(int bookId);
+
+    /** Per title with holds waiting or filled: the queue depth and how long holds wait. */
+    List<Reports.HoldQueue> holdQueues();
+
+    List<Loan> listLoans();
+
+    /** Returns one page of the current loans in loan id order; see listBooks for the tokens. */
+    Page<Loan> listLoans(String pageToken, int pageSize);
+
+    List<Loan> loansForBook(int bookId);
+
+    /** Returns the loans due within the next given number of days, earliest first; days must not be negative. */
+    List<Loan> dueWithin(int days);
+
+    /** Returns the loans past their due date, most overdue first. */
+    List<Loan> overdueLoans();
+
+    /** Returns the loans that became overdue since the last sweep. */
+    List<Loan> sweepOverdue();
+
+    String borrowerName(Loan loan);
+
+    /** Copies on the shelf and their value (price * quantity) per category, by category name. */
+    List<Reports.CategoryValue> inventoryValue();
+
+    /** Copies on the shelf and on loan per rack, by rack number. */
+    List<Reports.RackUsage> rackUsage();
+
+    /** The limit titles lent most often, most first. Throws IllegalArgumentException if limit is below 1. */
+    List<Reports.TitleCount> topBorrowed(int limit);
+
+    /** The limit students who have borrowed most often, with their current loans, most first. */
+    List<Reports.BorrowerCount> topBorrowers(int limit);
+
+    /** A copy of the catalog and the loans out, as of the sequence number it carries; see ChangeFeed. */
+    ChangeFeed.Snapshot replicaSnapshot();
+
+    /**
+     * Returns up to max changes after the given position, waiting up to waitMillis for one if there are
+     * none yet. Throws IllegalArgumentException if the changes after it are no longer available, in
+     * which case the caller must start over from replicaSnapshot.
+     */
+    List<ChangeEvent> changesAfter(long epoch, long sequence, int max, long waitMillis);
+
+    /** Replaces the catalog and the loans with a snapshot taken from another library. */
+    void restoreSnapshot(ChangeFeed.Snapshot snapshot);
+
+    /** Applies a change taken from another library's feed, in sequence order after its snapshot. */
+    void applyChange(ChangeEvent change);
+
+    @Override
+    void close();
+}
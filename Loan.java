@@ -0,0 +1,43 @@
+import java.time.LocalDate;
+
+/**
+ * One copy of a book lent to one borrower. Dates are held as epoch days.
+ */
+final class Loan {
+
+    /** The fine per day a copy is kept past its due date, in the currency of book prices. */
+    static final double FINE_PER_DAY = 1.0;
+
+    private final int loanId;
+    private final int bookId;
+    private final int borrowerId;
+    private final int issuedDay;
+    private final int dueDay;
+
+    Loan(int loanId, int bookId, int borrowerId, int issuedDay, int dueDay) {
+        this.loanId = loanId;
+        this.bookId = bookId;
+        this.borrowerId = borrowerId;
+        this.issuedDay = issuedDay;
+        this.dueDay = dueDay;
+    }
+
+    public int getLoanId() { return loanId; }
+    public int getBookId() { return bookId; }
+    public int getBorrowerId() { return borrowerId; }
+    public int getIssuedDay() { return issuedDay; }
+    public int getDueDay() { return dueDay; }
+
+    public LocalDate getIssuedDate() { return LocalDate.ofEpochDay(issuedDay); }
+    public LocalDate getDueDate() { return LocalDate.ofEpochDay(dueDay); }
+
+    /** The days the copy is late as of the given day, 0 if it is not yet due. */
+    public int daysLate(LocalDate today) {
+        return (int) Math.max(0, today.toEpochDay() - dueDay);
+    }
+
+    /** The fine owed as of the given day if the copy came back then. */
+    public double fine(LocalDate today) {
+        return daysLate(today) * FINE_PER_DAY;
+    }
+}
@@ -0,0 +1,678 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The loans currently out, persisted like BookStore as a snapshot plus a write-ahead log.
+ *
+ * Loans are indexed by loan id, by book, by borrower and by due date, so checking a copy out or in
+ * is a hash update plus an O(log n) due-date update. Borrower names are stored once and referred
+ * to by number.
+ *
+ * The due-date index buckets loans by epoch day in a sorted map, so "due in the next N days" and
+ * "overdue" are range reads. The overdue sweep remembers the last day it covered and only visits
+ * the buckets that expired since.
+ *
+ * Besides the loans out, the store counts how often each book and each borrower has ever been lent
+ * to, for the borrowing reports; the counts survive returns and are kept in the snapshot.
+ *
+ * Like BookStore, a loan store can log to a shared Journal instead of its own file, so that issuing
+ * or returning a book is one atomic record covering both stores.
+ *
+ * All public methods are synchronized.
+ *
+ * Snapshot layout: magic, version, generation, next loan id, last swept day, borrower names, then
+ * the loans as five ints each (loan id, book id, borrower id, issued day, due day), then the issue
+ * counts by book and by borrower as (id, count) pairs. Version 1 snapshots have no swept day, and
+ * versions 1 and 2 no issue counts, which are then started from the loans out.
+ */
+class LoanStore implements Closeable, Journal.Party {
+
+    /** The stream number of loan records in a shared journal. */
+    static final byte JOURNAL_STREAM = 2;
+
+    private static final int SNAPSHOT_MAGIC = 0x4C4D534C; // "LMSL"
+    private static final short VERSION = 3;
+    private static final byte OP_BORROWER = 1;
+    private static final byte OP_ISSUE = 2;
+    private static final byte OP_RETURN = 3;
+    private static final byte OP_SWEPT = 4;
+    private static final byte OP_COUNTS = 5;
+    private static final int NEVER_SWEPT = Integer.MIN_VALUE;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final String filename;
+    private final WriteAheadLog log; // null when logging to a journal
+    private final Journal journal;
+    private long generation;
+    private int nextLoanId = 1;
+    private int sweptThrough = NEVER_SWEPT;
+
+    private final IntObjectMap<Loan> loans = new IntObjectMap<>();
+    private final SortedIntSet loanIds = new SortedIntSet();
+    private final IntObjectMap<SortedIntSet> byBook = new IntObjectMap<>();
+    private final IntObjectMap<SortedIntSet> byBorrower = new IntObjectMap<>();
+    private final TreeMap<Integer, SortedIntSet> byDueDay = new TreeMap<>();
+    private final IntIntMap issuesByBook = new IntIntMap();
+    private final IntIntMap issuesByBorrower = new IntIntMap();
+
+    private final List<String> borrowerNames = new ArrayList<>();
+    private final Map<String, Integer> borrowerIds = new HashMap<>();
+
+    private LoanStore(String filename, String legacyIssueFile, Journal journal) throws IOException {
+        this.filename = filename;
+        this.journal = journal;
+        Path path = Paths.get(filename);
+        if (!Files.exists(path) && Files.exists(Paths.get(legacyIssueFile))) {
+            importIssuedBooks(legacyIssueFile);
+        } else {
+            loadSnapshot(path);
+        }
+        WriteAheadLog ownLog = journal == null || Files.exists(ownLogPath()) ? new WriteAheadLog(ownLogPath()) : null;
+        if (ownLog != null) {
+            if (ownLog.generation() == generation) {
+                ownLog.replay(this::apply);
+            } else {
+                // The snapshot was written but the log not yet reset when we last stopped; it is already folded in.
+                ownLog.reset(generation);
+            }
+        }
+        if (journal == null) {
+            this.log = ownLog;
+        } else {
+            this.log = null;
+            if (ownLog != null) {
+                // Moving to the journal; see BookStore
+                ownLog.close();
+                generation = -1;
+            }
+            journal.register(JOURNAL_STREAM, this);
+        }
+    }
+
+    /**
+     * Opens (or creates) the loan store, importing the old issued-books file the first time.
+     */
+    static LoanStore open(String filename, String legacyIssueFile) {
+        return open(filename, legacyIssueFile, null);
+    }
+
+    /**
+     * Opens (or creates) a loan store that logs to the shared journal.
+     * The journal's recover must be called once all its stores are open.
+     */
+    static LoanStore open(String filename, String legacyIssueFile, Journal journal) {
+        try {
+            return new LoanStore(filename, legacyIssueFile, journal);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening " + filename, e);
+        }
+    }
+
+    /**
+     * Records a new loan of one copy of the book.
+     */
+    public synchronized Loan checkOut(int bookId, String borrower, LocalDate issuedDate, int loanDays) {
+        int borrowerId = borrowerId(borrower);
+        int issuedDay = (int) issuedDate.toEpochDay();
+        Loan loan = new Loan(nextLoanId, bookId, borrowerId, issuedDay, issuedDay + loanDays);
+        append(encodeIssue(loan));
+        add(loan);
+        countIssue(loan);
+        compactIfNeeded();
+        return loan;
+    }
+
+    /**
+     * Records a loan made by another library, keeping its id and dates, for a replica copying that
+     * library's loans. Returns the loan already out under that id, if there is one. The loan is counted
+     * as an issue; a replica copying a whole snapshot sets the counts afterwards with restoreIssueCounts.
+     */
+    public synchronized Loan restore(int loanId, int bookId, String borrower, int issuedDay, int dueDay) {
+        Loan existing = loans.get(loanId);
+        if (existing != null) {
+            return existing;
+        }
+        Loan loan = new Loan(loanId, bookId, borrowerId(borrower), issuedDay, dueDay);
+        append(encodeIssue(loan));
+        add(loan);
+        countIssue(loan);
+        compactIfNeeded();
+        return loan;
+    }
+
+    /**
+     * Ends a loan, returning it, or null if there is no such loan.
+     */
+    public synchronized Loan checkIn(int loanId) {
+        if (loans.get(loanId) == null) {
+            return null;
+        }
+        append(encodeReturn(loanId));
+        Loan loan = remove(loanId);
+        compactIfNeeded();
+        return loan;
+    }
+
+    public synchronized Loan get(int loanId) {
+        return loans.get(loanId);
+    }
+
+    /** Returns all current loans in the order they were made. */
+    public synchronized List<Loan> list() {
+        return loans.values();
+    }
+
+    /** Returns up to limit loans with ids above the given one, in loan id order. */
+    public synchronized List<Loan> loansAfter(int afterLoanId, int limit) {
+        List<Loan> page = new ArrayList<>();
+        for (int id : loanIds.after(afterLoanId, limit)) {
+            page.add(loans.get(id));
+        }
+        return page;
+    }
+
+    public synchronized List<Loan> loansForBook(int bookId) {
+        return lookup(byBook.get(bookId));
+    }
+
+    public synchronized List<Loan> loansForBorrower(String borrower) {
+        Integer borrowerId = borrowerIds.get(normalize(borrower));
+        return borrowerId == null ? new ArrayList<>() : lookup(byBorrower.get(borrowerId));
+    }
+
+    /** Returns the loans due between the two dates (inclusive), earliest first. */
+    public synchronized List<Loan> dueBetween(LocalDate from, LocalDate to) {
+        return collect(byDueDay.subMap((int) from.toEpochDay(), true, (int) to.toEpochDay(), true));
+    }
+
+    /** Returns the loans due within the next given number of days (today included), earliest first. */
+    public synchronized List<Loan> dueWithin(LocalDate today, int days) {
+        // Clamped, so a huge number of days does not wrap past the int day keys
+        long last = Math.min(today.toEpochDay() + days, Integer.MAX_VALUE);
+        return collect(byDueDay.subMap((int) today.toEpochDay(), true, (int) last, true));
+    }
+
+    /** Returns every loan whose due date is before today, most overdue first. */
+    public synchronized List<Loan> overdue(LocalDate today) {
+        return collect(byDueDay.headMap((int) today.toEpochDay(), false));
+    }
+
+    /**
+     * Returns the loans that have become overdue since the previous sweep, most overdue first, and
+     * records today as swept. Only the due-date buckets between the two sweeps are visited; the first
+     * sweep ever returns everything already overdue.
+     */
+    public synchronized List<Loan> sweepOverdue(LocalDate today) {
+        int lastOverdueDay = (int) today.toEpochDay() - 1;
+        if (lastOverdueDay <= sweptThrough) {
+            return new ArrayList<>();
+        }
+        List<Loan> newlyOverdue = sweptThrough == NEVER_SWEPT
+                ? collect(byDueDay.headMap(lastOverdueDay, true))
+                : collect(byDueDay.subMap(sweptThrough, false, lastOverdueDay, true));
+        append(encodeSwept(lastOverdueDay));
+        sweptThrough = lastOverdueDay;
+        return newlyOverdue;
+    }
+
+    /** The number of copies of the book currently lent out. */
+    public synchronized int loanCount(int bookId) {
+        SortedIntSet ids = byBook.get(bookId);
+        return ids == null ? 0 : ids.size();
+    }
+
+    /** Returns the number of copies lent out per book, for the books with any out. */
+    public synchronized IntIntMap loanCountsByBook() {
+        IntIntMap counts = new IntIntMap(byBook.size());
+        byBook.forEach((bookId, ids) -> counts.put(bookId, ids.size()));
+        return counts;
+    }
+
+    /**
+     * Returns how often each book has ever been lent, as two parallel arrays: the book ids and
+     * their counts. Books deleted since are included.
+     */
+    public synchronized int[][] issueCountsByBook() {
+        return pairs(issuesByBook);
+    }
+
+    /**
+     * Returns, for every borrower who has ever borrowed, three parallel arrays: the borrower ids,
+     * how often each has borrowed, and how many loans each has out now.
+     */
+    public synchronized int[][] loanCountsByBorrower() {
+        int[][] counts = {new int[issuesByBorrower.size()], new int[issuesByBorrower.size()],
+                new int[issuesByBorrower.size()]};
+        int[] next = {0};
+        issuesByBorrower.forEach((borrowerId, count) -> {
+            SortedIntSet current = byBorrower.get(borrowerId);
+            counts[0][next[0]] = borrowerId;
+            counts[1][next[0]] = count;
+            counts[2][next[0]++] = current == null ? 0 : current.size();
+        });
+        return counts;
+    }
+
+    /** How often each borrower has ever borrowed, by name, for a replica snapshot. */
+    public synchronized Map<String, Integer> issueCountsByBorrowerName() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        issuesByBorrower.forEach((borrowerId, count) -> counts.put(borrowerNames.get(borrowerId), count));
+        return counts;
+    }
+
+    /**
+     * Replaces the issue counts with another library's, for a replica copying that library's snapshot,
+     * so its borrowing reports match rather than counting the copied loans again.
+     */
+    public synchronized void restoreIssueCounts(IntIntMap byBook, Map<String, Integer> byBorrowerName) {
+        IntIntMap byBorrower = new IntIntMap(byBorrowerName.size());
+        byBorrowerName.forEach((name, count) -> byBorrower.put(borrowerId(name), count));
+        append(encodeCounts(byBook, byBorrower));
+        setCounts(byBook, byBorrower);
+        compactIfNeeded();
+    }
+
+    public synchronized String borrowerName(int borrowerId) {
+        return borrowerNames.get(borrowerId);
+    }
+
+    public synchronized int size() {
+        return loans.size();
+    }
+
+    /**
+     * Folds the log into a fresh snapshot, written to a temporary file and atomically renamed.
+     */
+    public void compact() {
+        if (journal != null) {
+            // Not under this store's monitor: the journal waits for open transactions, which may need it
+            journal.compact();
+            return;
+        }
+        synchronized (this) {
+            try {
+                long newGeneration = generation + 1;
+                writeSnapshot(newGeneration);
+                log.reset(newGeneration);
+            } catch (IOException e) {
+                System.err.println("Error compacting " + filename + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Closes the store's own log; a journaled store is snapshotted when its journal is closed. */
+    @Override
+    public synchronized void close() {
+        if (log == null) {
+            return;
+        }
+        try {
+            if (log.records() > 0) {
+                compact();
+            }
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + filename + ": " + e.getMessage());
+        }
+    }
+
+    private int borrowerId(String borrower) {
+        Integer existing = borrowerIds.get(normalize(borrower));
+        if (existing != null) {
+            return existing;
+        }
+        int id = borrowerNames.size();
+        byte[] record = encodeBorrower(id, borrower);
+        if (journal != null) {
+            // Durable at once: a concurrent transaction may use the id before ours commits
+            journal.appendNow(JOURNAL_STREAM, record);
+        } else {
+            append(record);
+        }
+        addBorrower(id, borrower);
+        return id;
+    }
+
+    private void addBorrower(int id, String borrower) {
+        while (borrowerNames.size() <= id) {
+            borrowerNames.add(null);
+        }
+        borrowerNames.set(id, borrower);
+        borrowerIds.put(normalize(borrower), id);
+    }
+
+    private static String normalize(String borrower) {
+        return borrower.trim().toLowerCase();
+    }
+
+    private void add(Loan loan) {
+        loans.put(loan.getLoanId(), loan);
+        loanIds.add(loan.getLoanId());
+        index(byBook, loan.getBookId(), loan.getLoanId());
+        index(byBorrower, loan.getBorrowerId(), loan.getLoanId());
+        byDueDay.computeIfAbsent(loan.getDueDay(), d -> new SortedIntSet()).add(loan.getLoanId());
+        if (loan.getLoanId() >= nextLoanId) {
+            nextLoanId = loan.getLoanId() + 1;
+        }
+    }
+
+    private void setCounts(IntIntMap byBook, IntIntMap byBorrower) {
+        issuesByBook.clear();
+        byBook.forEach(issuesByBook::put);
+        issuesByBorrower.clear();
+        byBorrower.forEach(issuesByBorrower::put);
+    }
+
+    private void countIssue(Loan loan) {
+        issuesByBook.put(loan.getBookId(), issuesByBook.get(loan.getBookId(), 0) + 1);
+        issuesByBorrower.put(loan.getBorrowerId(), issuesByBorrower.get(loan.getBorrowerId(), 0) + 1);
+    }
+
+    private Loan remove(int loanId) {
+        Loan loan = loans.remove(loanId);
+        if (loan == null) {
+            return null;
+        }
+        loanIds.remove(loanId);
+        unindex(byBook, loan.getBookId(), loanId);
+        unindex(byBorrower, loan.getBorrowerId(), loanId);
+        SortedIntSet due = byDueDay.get(loan.getDueDay());
+        if (due != null && due.remove(loanId) && due.isEmpty()) {
+            byDueDay.remove(loan.getDueDay());
+        }
+        return loan;
+    }
+
+    private static void index(IntObjectMap<SortedIntSet> index, int key, int loanId) {
+        SortedIntSet ids = index.get(key);
+        if (ids == null) {
+            ids = new SortedIntSet();
+            index.put(key, ids);
+        }
+        ids.add(loanId);
+    }
+
+    private static void unindex(IntObjectMap<SortedIntSet> index, int key, int loanId) {
+        SortedIntSet ids = index.get(key);
+        if (ids != null && ids.remove(loanId) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private List<Loan> lookup(SortedIntSet ids) {
+        List<Loan> result = new ArrayList<>();
+        if (ids != null) {
+            ids.forEach(id -> result.add(loans.get(id)));
+        }
+        return result;
+    }
+
+    private List<Loan> collect(Map<Integer, SortedIntSet> buckets) {
+        List<Loan> result = new ArrayList<>();
+        for (SortedIntSet ids : buckets.values()) {
+            ids.forEach(id -> result.add(loans.get(id)));
+        }
+        return result;
+    }
+
+    private void compactIfNeeded() {
+        if (log != null && log.records() >= Math.max(COMPACT_MIN_RECORDS, loans.size())) {
+            compact();
+        }
+    }
+
+    private Path ownLogPath() {
+        return Paths.get(filename + ".log");
+    }
+
+    private void append(byte[] record) {
+        if (journal != null) {
+            journal.append(JOURNAL_STREAM, record);
+            return;
+        }
+        try {
+            log.append(record);
+        } catch (IOException e) {
+            System.err.println("Error writing to file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /** Applies a logged change during replay. */
+    @Override
+    public synchronized void apply(ByteBuffer record) {
+        byte op = record.get();
+        if (op == OP_BORROWER) {
+            int id = record.getInt();
+            addBorrower(id, BookCodec.readString(record));
+        } else if (op == OP_ISSUE) {
+            Loan loan = readLoan(record);
+            if (loans.get(loan.getLoanId()) == null) {
+                // A snapshot may already hold the loan; counting it again would inflate the issue counts
+                add(loan);
+                countIssue(loan);
+            }
+        } else if (op == OP_RETURN) {
+            remove(record.getInt());
+        } else if (op == OP_SWEPT) {
+            sweptThrough = record.getInt();
+        } else if (op == OP_COUNTS) {
+            IntIntMap byBook = new IntIntMap();
+            IntIntMap byBorrower = new IntIntMap();
+            readCounts(record, byBook);
+            readCounts(record, byBorrower);
+            setCounts(byBook, byBorrower);
+        }
+    }
+
+    private static Loan readLoan(ByteBuffer in) {
+        return new Loan(in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+    }
+
+    private static void writeLoan(DataOutputStream out, Loan loan) throws IOException {
+        out.writeInt(loan.getLoanId());
+        out.writeInt(loan.getBookId());
+        out.writeInt(loan.getBorrowerId());
+        out.writeInt(loan.getIssuedDay());
+        out.writeInt(loan.getDueDay());
+    }
+
+    private static byte[] encodeBorrower(int id, String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(OP_BORROWER);
+            out.writeInt(id);
+            BookCodec.writeString(out, name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeIssue(Loan loan) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(21);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(OP_ISSUE);
+            writeLoan(out, loan);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeReturn(int loanId) {
+        return ByteBuffer.allocate(5).put(OP_RETURN).putInt(loanId).array();
+    }
+
+    private static byte[] encodeSwept(int day) {
+        return ByteBuffer.allocate(5).put(OP_SWEPT).putInt(day).array();
+    }
+
+    private static byte[] encodeCounts(IntIntMap byBook, IntIntMap byBorrower) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9 + 8 * (byBook.size() + byBorrower.size()));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(OP_COUNTS);
+            writeCounts(out, byBook);
+            writeCounts(out, byBorrower);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public synchronized void writeSnapshot(long newGeneration) throws IOException {
+        long start = Metrics.start();
+        Path target = Paths.get(filename);
+        Path temp = Paths.get(filename + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(newGeneration);
+            out.writeInt(nextLoanId);
+            out.writeInt(sweptThrough);
+            out.writeInt(borrowerNames.size());
+            for (String name : borrowerNames) {
+                BookCodec.writeString(out, name);
+            }
+            out.writeInt(loans.size());
+            for (Loan loan : loans.values()) {
+                writeLoan(out, loan);
+            }
+            writeCounts(out, issuesByBook);
+            writeCounts(out, issuesByBorrower);
+            out.flush();
+            fos.getFD().sync();
+            Metrics.counter("storage." + target.getFileName() + ".bytesWritten").add(out.size());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.timer("storage." + target.getFileName() + ".snapshot").stop(start);
+        generation = newGeneration;
+        if (journal != null) {
+            Files.deleteIfExists(ownLogPath());
+        }
+    }
+
+    private void loadSnapshot(Path path) throws IOException {
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            return;
+        }
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                // keep reading
+            }
+            in.flip();
+        }
+        Metrics.counter("storage." + path.getFileName() + ".bytesRead").add(in.limit());
+        if (in.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a loan snapshot: " + path);
+        }
+        short version = in.getShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported loan snapshot version " + version + " in " + path);
+        }
+        generation = in.getLong();
+        nextLoanId = in.getInt();
+        if (version >= 2) {
+            sweptThrough = in.getInt();
+        }
+        int borrowers = in.getInt();
+        for (int id = 0; id < borrowers; id++) {
+            addBorrower(id, BookCodec.readString(in));
+        }
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            add(readLoan(in));
+        }
+        if (version >= 3) {
+            readCounts(in, issuesByBook);
+            readCounts(in, issuesByBorrower);
+        } else {
+            loans.forEach((loanId, loan) -> countIssue(loan));
+        }
+    }
+
+    /** Copies the map into two parallel arrays of keys and values. */
+    private static int[][] pairs(IntIntMap counts) {
+        int[][] pairs = {new int[counts.size()], new int[counts.size()]};
+        int[] next = {0};
+        counts.forEach((id, count) -> {
+            pairs[0][next[0]] = id;
+            pairs[1][next[0]++] = count;
+        });
+        return pairs;
+    }
+
+    private static void writeCounts(DataOutputStream out, IntIntMap counts) throws IOException {
+        int[][] pairs = pairs(counts);
+        out.writeInt(pairs[0].length);
+        for (int i = 0; i < pairs[0].length; i++) {
+            out.writeInt(pairs[0][i]);
+            out.writeInt(pairs[1][i]);
+        }
+    }
+
+    private static void readCounts(ByteBuffer in, IntIntMap counts) {
+        int size = in.getInt();
+        for (int i = 0; i < size; i++) {
+            counts.put(in.getInt(), in.getInt());
+        }
+    }
+
+    /**
+     * One-time conversion of the old issued-books file, where each entry was a full copy of the book
+     * carrying the student name and dates, into loans. The old file is kept as "<file>.migrated".
+     */
+    private void importIssuedBooks(String legacyIssueFile) throws IOException {
+        BookStore issued = BookStore.sequential(legacyIssueFile);
+        try {
+            for (Book book : issued.list()) {
+                if (book.getIssuedDate() == null) {
+                    continue;
+                }
+                int issuedDay = (int) book.getIssuedDate().toEpochDay();
+                int dueDay = (int) book.getDueDate().toEpochDay();
+                int borrower = borrowerIds.computeIfAbsent(normalize(book.getStudentName()), n -> {
+                    borrowerNames.add(book.getStudentName());
+                    return borrowerNames.size() - 1;
+                });
+                Loan loan = new Loan(nextLoanId, book.getId(), borrower, issuedDay, dueDay);
+                add(loan);
+                countIssue(loan);
+            }
+        } finally {
+            issued.close();
+        }
+        writeSnapshot(generation);
+        Files.move(Paths.get(legacyIssueFile), Paths.get(legacyIssueFile + ".migrated"),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(Paths.get(legacyIssueFile + ".log"));
+        System.out.println("Migrated " + loans.size() + " issued books from " + legacyIssueFile + " to loans.");
+    }
+}
@@ -0,0 +1,558 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A catalog stored as fixed-size slots in a memory-mapped file.
+ *
+ * Each book occupies one 256-byte slot, found through an id-to-slot index, so changing a field
+ * (e.g. the quantity on issue and return) is an in-place write of a few bytes. The file is mapped in
+ * segments that the OS pages in lazily. Closing saves the index next to the file ("<file>.idx"), so a
+ * clean reopen reads a few bytes per book instead of paging in every slot; the saved index is
+ * deleted as soon as it is loaded, so after a crash the slot headers are scanned instead.
+ *
+ * Changes are logged in the shared journal as the same records BookStore writes, so an issue is one
+ * atomic record with its loan. The segments are mapped copy-on-write: a change only reaches the file
+ * when the journal snapshots, which writes the changed slots back and stamps the header with the
+ * generation. After a crash the file therefore holds the last snapshot (or one partly written, which
+ * the journal's absolute records then overwrite), never a change the journal does not have.
+ *
+ * Slot layout: byte state, byte category, int id, int quantity, int rackNo, double price,
+ * short length + name (up to 120 bytes UTF-8), short length + author (up to 100 bytes UTF-8).
+ * Issue details are not kept here; issued copies live in their own store.
+ */
+class MappedBookStore implements BookRepository, Journal.Party {
+
+    static final int MAGIC = 0x4C4D534D; // "LMSM"
+    private static final int INDEX_MAGIC = 0x4C4D5349; // "LMSI"
+
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int GENERATION = Integer.BYTES + Short.BYTES + Integer.BYTES; // after magic, version, slot size
+    private static final int SLOT_SIZE = 256;
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_SLOTS = 1 << SEGMENT_SHIFT; // 16 MB per mapped segment
+
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+
+    private static final int STATE = 0;
+    private static final int CATEGORY = 1;
+    private static final int ID = 4;
+    private static final int QUANTITY = 8;
+    private static final int RACK_NO = 12;
+    private static final int PRICE = 16;
+    private static final int NAME = 24;
+    private static final int NAME_MAX = 120;
+    private static final int AUTHOR = NAME + 2 + NAME_MAX;
+    private static final int AUTHOR_MAX = 100;
+
+    private final String filename;
+    private final FileChannel channel;
+    private final Journal journal;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private IntIntMap slotsById = new IntIntMap();
+    private final BitSet dirty = new BitSet(); // slots changed since the last snapshot
+    private final Metrics.Timer forces;
+    private final Metrics.Counter bytesWritten;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private long generation;
+
+    private MappedBookStore(String filename, Journal journal) throws IOException {
+        this.filename = filename;
+        this.journal = journal;
+        Path path = Paths.get(filename);
+        this.forces = Metrics.timer("storage." + path.getFileName() + ".force");
+        this.bytesWritten = Metrics.counter("storage." + path.getFileName() + ".bytesWritten");
+        if (Files.exists(path) && Files.size(path) > 0 && !isMapped(path)) {
+            importSnapshot(path);
+        }
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            writeHeader(channel, 0);
+        }
+        readHeader();
+        int segmentCount = (int) ((channel.size() - HEADER_SIZE) / ((long) SLOT_SIZE * SEGMENT_SLOTS));
+        for (int i = 0; i < segmentCount; i++) {
+            mapSegment(i);
+        }
+        if (!loadIndex()) {
+            scanSlots();
+        }
+        journal.register(BookStore.JOURNAL_STREAM, this);
+    }
+
+    /**
+     * Opens (or creates) the mapped store logging to the shared journal, converting a snapshot-format
+     * file on first use. The journal's recover must be called once all its stores are open.
+     */
+    static MappedBookStore open(String filename, Journal journal) {
+        try {
+            return new MappedBookStore(filename, journal);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening " + filename, e);
+        }
+    }
+
+    @Override
+    public synchronized Book get(int id) {
+        int slot = slotsById.get(id, -1);
+        return slot < 0 ? null : readSlot(slot);
+    }
+
+    @Override
+    public synchronized boolean contains(int id) {
+        return slotsById.containsKey(id);
+    }
+
+    @Override
+    public synchronized void put(int id, Book book) {
+        checkFits(book);
+        journal.append(BookStore.JOURNAL_STREAM, BookStore.encode(BookStore.OP_PUT, id, book));
+        store(id, book);
+    }
+
+    /** Logs the batch as one frame, after checking that every book fits, so a rejected batch writes nothing. */
+    @Override
+    public synchronized void putAll(List<Book> books) {
+        List<byte[]> records = new ArrayList<>(books.size());
+        for (Book book : books) {
+            checkFits(book);
+            records.add(BookStore.encode(BookStore.OP_PUT, book.getId(), book));
+        }
+        journal.appendAll(BookStore.JOURNAL_STREAM, records);
+        for (Book book : books) {
+            store(book.getId(), book);
+        }
+    }
+
+    @Override
+    public synchronized boolean delete(int id) {
+        if (!slotsById.containsKey(id)) {
+            return false;
+        }
+        journal.append(BookStore.JOURNAL_STREAM, BookStore.encode(BookStore.OP_DELETE, id, null));
+        remove(id);
+        return true;
+    }
+
+    /** Logs the whole book after the change, as BookStore does, so replaying the record is idempotent. */
+    @Override
+    public synchronized boolean adjustQuantity(int id, int delta) {
+        int slot = slotsById.get(id, -1);
+        if (slot < 0) {
+            return false;
+        }
+        ByteBuffer segment = segment(slot);
+        int position = offset(slot) + QUANTITY;
+        int quantity = segment.getInt(position) + delta;
+        if (quantity < 0) {
+            return false;
+        }
+        Book updated = readSlot(slot);
+        updated.setQuantity(quantity);
+        journal.append(BookStore.JOURNAL_STREAM, BookStore.encode(BookStore.OP_PUT, id, updated));
+        segment.putInt(position, quantity);
+        dirty.set(slot);
+        return true;
+    }
+
+    @Override
+    public synchronized List<Book> list() {
+        List<Book> books = new ArrayList<>(slotsById.size());
+        forEach(books::add);
+        return books;
+    }
+
+    @Override
+    public synchronized void forEach(Consumer<? super Book> action) {
+        int slots = segments.size() * SEGMENT_SLOTS;
+        for (int slot = 0; slot < slots; slot++) {
+            if (segment(slot).get(offset(slot) + STATE) == USED) {
+                action.accept(readSlot(slot));
+            }
+        }
+    }
+
+    /** Reads just the quantity field of each used slot, without decoding the books. */
+    @Override
+    public synchronized long totalQuantity() {
+        long total = 0;
+        int slots = segments.size() * SEGMENT_SLOTS;
+        for (int slot = 0; slot < slots; slot++) {
+            ByteBuffer segment = segment(slot);
+            int base = offset(slot);
+            if (segment.get(base + STATE) == USED) {
+                total += segment.getInt(base + QUANTITY);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int size() {
+        return slotsById.size();
+    }
+
+    /**
+     * Saves the slot index and closes the file. The journal is closed first and snapshots the changes;
+     * if some are still unwritten the index is not saved, so the next open scans the file and replays them.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (dirty.isEmpty()) {
+                saveIndex();
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + filename + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Writes the slots changed since the last snapshot back to the file, then stamps the header with the
+     * generation and maps the segments afresh, which drops the private copies of the changed pages.
+     */
+    @Override
+    public synchronized void writeSnapshot(long newGeneration) throws IOException {
+        long start = Metrics.start();
+        for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+            ByteBuffer contents = segment(slot).duplicate();
+            contents.position(offset(slot)).limit(offset(slot) + SLOT_SIZE);
+            long position = HEADER_SIZE + (long) slot * SLOT_SIZE;
+            while (contents.hasRemaining()) {
+                position += channel.write(contents, position);
+            }
+        }
+        channel.force(false);
+        writeGeneration(channel, newGeneration);
+        forces.stop(start);
+        bytesWritten.add((long) dirty.cardinality() * SLOT_SIZE);
+        dirty.clear();
+        generation = newGeneration;
+        int segmentCount = segments.size();
+        segments.clear();
+        for (int i = 0; i < segmentCount; i++) {
+            mapSegment(i);
+        }
+    }
+
+    /** Applies a logged change during replay. */
+    @Override
+    public synchronized void apply(ByteBuffer record) {
+        byte op = record.get();
+        int id = record.getInt();
+        if (op == BookStore.OP_PUT) {
+            store(id, BookCodec.read(record));
+        } else if (op == BookStore.OP_DELETE) {
+            remove(id);
+        }
+    }
+
+    /** Writes the book into its slot, or a newly allocated one, and maps the id to it only once it is written. */
+    private void store(int id, Book book) {
+        int slot = slotsById.get(id, -1);
+        boolean allocated = slot < 0;
+        if (allocated) {
+            slot = allocateSlot();
+        }
+        try {
+            encodeSlot(segment(slot), offset(slot), book);
+        } catch (RuntimeException e) {
+            if (allocated) {
+                pushFree(slot);
+            }
+            throw e;
+        }
+        slotsById.put(id, slot);
+        dirty.set(slot);
+    }
+
+    private void remove(int id) {
+        int slot = slotsById.remove(id, -1);
+        if (slot >= 0) {
+            segment(slot).put(offset(slot) + STATE, FREE);
+            dirty.set(slot);
+            pushFree(slot);
+        }
+    }
+
+    private Book readSlot(int slot) {
+        ByteBuffer segment = segment(slot);
+        int base = offset(slot);
+        byte category = segment.get(base + CATEGORY);
+        return new Book(segment.getInt(base + ID),
+                readString(segment, base + NAME),
+                readString(segment, base + AUTHOR),
+                segment.getInt(base + QUANTITY),
+                segment.getDouble(base + PRICE),
+                segment.getInt(base + RACK_NO),
+                Book.CATEGORIES[category]);
+    }
+
+    private static void encodeSlot(ByteBuffer segment, int base, Book book) {
+        // Validate everything before touching the slot, so a rejected book never leaves it half-written
+        int category = categoryOf(book);
+        byte[] name = encodeString(book.getName(), NAME_MAX);
+        byte[] author = encodeString(book.getAuthor(), AUTHOR_MAX);
+        segment.put(base + CATEGORY, (byte) category);
+        segment.putInt(base + ID, book.getId());
+        segment.putInt(base + QUANTITY, book.getQuantity());
+        segment.putInt(base + RACK_NO, book.getRackNo());
+        segment.putDouble(base + PRICE, book.getPrice());
+        segment.putShort(base + NAME, (short) name.length);
+        segment.put(base + NAME + 2, name);
+        segment.putShort(base + AUTHOR, (short) author.length);
+        segment.put(base + AUTHOR + 2, author);
+        // Mark the slot live only once its contents are complete
+        segment.put(base + STATE, USED);
+    }
+
+    /** Throws IllegalArgumentException if the book's category is unknown or a string does not fit its slot field. */
+    private static void checkFits(Book book) {
+        categoryOf(book);
+        encodeString(book.getName(), NAME_MAX);
+        encodeString(book.getAuthor(), AUTHOR_MAX);
+    }
+
+    private static int categoryOf(Book book) {
+        int category = Arrays.asList(Book.CATEGORIES).indexOf(book.getCategory());
+        if (category < 0) {
+            throw new IllegalArgumentException("Unknown category: " + book.getCategory());
+        }
+        return category;
+    }
+
+    private static String readString(ByteBuffer segment, int position) {
+        int length = segment.getShort(position);
+        byte[] bytes = new byte[length];
+        segment.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodeString(String value, int maxBytes) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            throw new IllegalArgumentException("'" + value + "' is longer than " + maxBytes + " bytes");
+        }
+        return bytes;
+    }
+
+    private int allocateSlot() {
+        if (freeCount == 0) {
+            int first = segments.size() * SEGMENT_SLOTS;
+            mapSegment(segments.size());
+            for (int slot = first + SEGMENT_SLOTS - 1; slot >= first; slot--) {
+                pushFree(slot);
+            }
+        }
+        return freeSlots[--freeCount];
+    }
+
+    private void pushFree(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Rebuilds the id index and free list from the slot headers; book contents are not decoded.
+     * A snapshot cut short can leave a book in both its old and new slot; the journal rewrites the book
+     * on replay, so the extra slot is freed here.
+     */
+    private void scanSlots() {
+        int slots = segments.size() * SEGMENT_SLOTS;
+        for (int slot = slots - 1; slot >= 0; slot--) {
+            ByteBuffer segment = segment(slot);
+            int base = offset(slot);
+            if (segment.get(base + STATE) == USED && !slotsById.containsKey(segment.getInt(base + ID))) {
+                slotsById.put(segment.getInt(base + ID), slot);
+            } else {
+                if (segment.get(base + STATE) == USED) {
+                    segment.put(base + STATE, FREE);
+                    dirty.set(slot);
+                }
+                pushFree(slot);
+            }
+        }
+    }
+
+    private Path indexPath() {
+        return Paths.get(filename + ".idx");
+    }
+
+    /**
+     * Loads the index saved by close, if there is one for a file of this size, and deletes it since
+     * the store is about to change. Index layout: magic, slot count, the id-to-slot map as written by
+     * IntIntMap.writeTo, then the free slots in allocation order.
+     */
+    private boolean loadIndex() throws IOException {
+        Path path = indexPath();
+        if (!Files.exists(path)) {
+            return false;
+        }
+        ByteBuffer in;
+        try (FileChannel index = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = ByteBuffer.allocate(Math.toIntExact(index.size()));
+            while (in.hasRemaining() && index.read(in) >= 0) {
+                // keep reading
+            }
+            in.flip();
+        }
+        Files.delete(path);
+        if (in.remaining() < Integer.BYTES * 3 || in.getInt() != INDEX_MAGIC
+                || in.getInt() != segments.size() * SEGMENT_SLOTS) {
+            return false;
+        }
+        try {
+            IntIntMap index = IntIntMap.readFrom(in);
+            int free = in.getInt();
+            int[] slots = new int[Math.max(16, free)];
+            in.asIntBuffer().get(slots, 0, free);
+            slotsById = index;
+            freeSlots = slots;
+            freeCount = free;
+            return true;
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            System.err.println("Error reading " + path + ", scanning the slots instead: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES * (3 + freeCount) + slotsById.serializedSize());
+        out.putInt(INDEX_MAGIC).putInt(segments.size() * SEGMENT_SLOTS);
+        slotsById.writeTo(out);
+        out.putInt(freeCount);
+        out.asIntBuffer().put(freeSlots, 0, freeCount);
+        out.position(out.capacity()).flip();
+        try (FileChannel index = FileChannel.open(indexPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                index.write(out);
+            }
+        }
+    }
+
+    private void mapSegment(int index) {
+        try {
+            long position = HEADER_SIZE + (long) index * SEGMENT_SLOTS * SLOT_SIZE;
+            long size = (long) SEGMENT_SLOTS * SLOT_SIZE;
+            if (channel.size() < position + size) {
+                // A private mapping does not grow the file, so the new segment is added to it first
+                channel.write(ByteBuffer.allocate(1), position + size - 1);
+            }
+            segments.add(channel.map(FileChannel.MapMode.PRIVATE, position, size));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error mapping " + filename, e);
+        }
+    }
+
+    private ByteBuffer segment(int slot) {
+        return segments.get(slot >>> SEGMENT_SHIFT);
+    }
+
+    private static int offset(int slot) {
+        return (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+    }
+
+    /** Header layout: magic, version, slot size, and the journal generation of the slots' contents. */
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(GENERATION + Long.BYTES);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a mapped book store: " + filename);
+        }
+        short version = header.getShort();
+        int slotSize = header.getInt();
+        if (version != VERSION || slotSize != SLOT_SIZE) {
+            throw new IOException("Unsupported mapped store layout in " + filename);
+        }
+        generation = header.getLong();
+    }
+
+    private static void writeHeader(FileChannel target, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putInt(SLOT_SIZE).putLong(generation);
+        header.clear();
+        target.write(header, 0);
+        target.force(true);
+    }
+
+    private static void writeGeneration(FileChannel target, long generation) throws IOException {
+        ByteBuffer stamp = ByteBuffer.allocate(Long.BYTES).putLong(generation);
+        stamp.flip();
+        target.write(stamp, GENERATION);
+        target.force(true);
+    }
+
+    private static boolean isMapped(Path path) throws IOException {
+        try (FileChannel existing = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            return existing.read(magic, 0) == Integer.BYTES && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * One-way conversion from the snapshot-and-log format: loads it, writes every book into slots of a
+     * new file with plain channel writes, then swaps the new file in and drops the old log. The slots keep
+     * the snapshot's generation, so the journal records written on top of it still replay.
+     */
+    private static void importSnapshot(Path path) throws IOException {
+        Path temp = Paths.get(path + ".tmp");
+        BookStore source = BookStore.byId(path.toString());
+        List<Book> books;
+        long generation;
+        try {
+            books = source.list();
+            generation = source.generation();
+        } finally {
+            source.close();
+        }
+        try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(target, generation);
+            ByteBuffer segment = ByteBuffer.allocate(SEGMENT_SLOTS * SLOT_SIZE);
+            long position = HEADER_SIZE;
+            for (int start = 0; start < books.size(); start += SEGMENT_SLOTS) {
+                Arrays.fill(segment.array(), (byte) 0);
+                int end = Math.min(books.size(), start + SEGMENT_SLOTS);
+                for (int i = start; i < end; i++) {
+                    encodeSlot(segment, (i - start) * SLOT_SIZE, books.get(i));
+                }
+                segment.clear();
+                while (segment.hasRemaining()) {
+                    position += target.write(segment, position);
+                }
+            }
+            target.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(Paths.get(path + ".log"));
+        System.out.println("Converted " + path + " to the mapped slot format.");
+    }
+}
@@ -0,0 +1,127 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Operation timings and storage byte counts, switched on with -Dlms.metrics=true.
+ *
+ * The switch is read once into a constant, so when metrics are off every start, stop and add is
+ * compiled away and the library is not wrapped for timing at all. When on, the metrics can be read
+ * as text (dump) or over JMX as the MBean lms:type=Metrics.
+ */
+final class Metrics {
+
+    static final boolean ENABLED = Boolean.getBoolean("lms.metrics");
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Timer DISABLED_TIMER = new Timer();
+    private static final Counter DISABLED_COUNTER = new Counter();
+
+    private Metrics() {
+    }
+
+    /** Returns the named timer, creating it on first use. */
+    static Timer timer(String name) {
+        return ENABLED ? TIMERS.computeIfAbsent(name, n -> new Timer()) : DISABLED_TIMER;
+    }
+
+    /** Returns the named counter, creating it on first use. */
+    static Counter counter(String name) {
+        return ENABLED ? COUNTERS.computeIfAbsent(name, n -> new Counter()) : DISABLED_COUNTER;
+    }
+
+    /** Returns the start time to pass to Timer.stop, or 0 when metrics are off. */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    static Map<String, Timer> timers() {
+        return TIMERS;
+    }
+
+    static Map<String, Counter> counters() {
+        return COUNTERS;
+    }
+
+    /** Registers the metrics with the platform MBean server, if they are on. */
+    static void registerMBean() {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(MetricsMBean.NAME));
+        } catch (JMException e) {
+            System.err.println("Error registering metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /** Formats the metrics as text, one per line, leaving out operations never called; latencies are in microseconds. */
+    static String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-28s %10s %8s %10s %10s %10s %10s %10s%n",
+                "Operation", "Count", "Errors", "Mean", "p50", "p99", "p99.9", "Max"));
+        for (Map.Entry<String, Timer> entry : TIMERS.entrySet()) {
+            Timer timer = entry.getValue();
+            LatencyHistogram latency = timer.latency;
+            if (latency.count() == 0) {
+                continue;
+            }
+            out.append(String.format("%-28s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(),
+                    latency.count(), timer.errors(), latency.mean() / 1000, micros(latency.percentile(50)),
+                    micros(latency.percentile(99)), micros(latency.percentile(99.9)), micros(latency.max())));
+        }
+        out.append(String.format("%n%-40s %16s%n", "Counter", "Value"));
+        for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+            out.append(String.format("%-40s %16d%n", entry.getKey(), entry.getValue().get()));
+        }
+        return out.toString();
+    }
+
+    static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    /** Counts and times one kind of operation. */
+    static final class Timer {
+        final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        /** Records the time since start, as returned by Metrics.start. */
+        void stop(long start) {
+            if (ENABLED) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        /** Records the time since start for an operation that failed with an exception. */
+        void fail(long start) {
+            if (ENABLED) {
+                latency.record(System.nanoTime() - start);
+                errors.increment();
+            }
+        }
+
+        long errors() {
+            return errors.sum();
+        }
+    }
+
+    /** A running total, such as bytes written to a file. */
+    static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void add(long amount) {
+            if (ENABLED) {
+                value.add(amount);
+            }
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+}
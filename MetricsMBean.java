@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes the metrics over JMX. Attributes appear as metrics are created: for each operation
+ * "name.count", "name.errors" and "name.meanMicros", "name.p50Micros", "name.p99Micros",
+ * "name.p999Micros", "name.maxMicros"; for each counter its name. The "dump" operation returns the
+ * text form.
+ */
+class MetricsMBean implements DynamicMBean {
+
+    static final String NAME = "lms:type=Metrics";
+
+    private static final String[] TIMER_STATS = {"count", "errors", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"};
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Metrics.Counter counter = Metrics.counters().get(attribute);
+        if (counter != null) {
+            return counter.get();
+        }
+        int dot = attribute.lastIndexOf('.');
+        Metrics.Timer timer = dot < 0 ? null : Metrics.timers().get(attribute.substring(0, dot));
+        if (timer == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        LatencyHistogram latency = timer.latency;
+        switch (attribute.substring(dot + 1)) {
+            case "count": return latency.count();
+            case "errors": return timer.errors();
+            case "meanMicros": return latency.mean() / 1000;
+            case "p50Micros": return Metrics.micros(latency.percentile(50));
+            case "p99Micros": return Metrics.micros(latency.percentile(99));
+            case "p999Micros": return Metrics.micros(latency.percentile(99.9));
+            case "maxMicros": return Metrics.micros(latency.max());
+            default: throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Left out, as the JMX contract asks
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("dump")) {
+            return Metrics.dump();
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : Metrics.timers().keySet()) {
+            for (String stat : TIMER_STATS) {
+                String type = stat.endsWith("Micros") ? "double" : "long";
+                attributes.add(new MBeanAttributeInfo(name + "." + stat, type, stat + " of " + name, true, false, false));
+            }
+        }
+        for (Map.Entry<String, Metrics.Counter> entry : Metrics.counters().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(), "long", entry.getKey(), true, false, false));
+        }
+        MBeanOperationInfo dump = new MBeanOperationInfo("dump", "All metrics as text",
+                new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+        return new MBeanInfo(getClass().getName(), "Library operation and storage metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {dump}, null);
+    }
+}
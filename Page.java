@@ -0,0 +1,22 @@
+import java.util.List;
+
+/**
+ * One page of a listing, with the token that resumes the listing after it.
+ */
+final class Page<T> {
+
+    private final List<T> items;
+    private final String nextToken;
+
+    Page(List<T> items, String nextToken) {
+        this.items = items;
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getItems() { return items; }
+
+    /** Pass to the next call to continue after this page; null when this is the last page. */
+    public String getNextToken() { return nextToken; }
+
+    public boolean hasNext() { return nextToken != null; }
+}
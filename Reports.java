@@ -0,0 +1,224 @@
+import java.util.stream.IntStream;
+
+/**
+ * The rows of the library reports, and the parallel ranking used to pick the top of a count.
+ *
+ * Rankings run as a parallel stream over the counts: each fork/join worker keeps the best entries
+ * of its share in a small heap, and the heaps are merged, so picking the top n of m entries costs
+ * O(m log n) spread over the cores rather than a full sort.
+ */
+final class Reports {
+
+    private Reports() {
+    }
+
+    /** The copies on the shelf in one category and their value (price * quantity). */
+    static final class CategoryValue {
+        private final String category;
+        private final long titles;
+        private final long copies;
+        private final long valueCents;
+
+        CategoryValue(String category, long titles, long copies, long valueCents) {
+            this.category = category;
+            this.titles = titles;
+            this.copies = copies;
+            this.valueCents = valueCents;
+        }
+
+        public String getCategory() { return category; }
+        public long getTitles() { return titles; }
+        public long getCopies() { return copies; }
+        public long getValueCents() { return valueCents; }
+        public double getValue() { return valueCents / 100.0; }
+    }
+
+    /** The copies of the books on one rack, on the shelf and lent out. */
+    static final class RackUsage {
+        private final int rackNo;
+        private final long onShelf;
+        private final long onLoan;
+
+        RackUsage(int rackNo, long onShelf, long onLoan) {
+            this.rackNo = rackNo;
+            this.onShelf = onShelf;
+            this.onLoan = onLoan;
+        }
+
+        public int getRackNo() { return rackNo; }
+        public long getOnShelf() { return onShelf; }
+        public long getOnLoan() { return onLoan; }
+
+        /** The share of the rack's copies that are lent out, from 0 to 1. */
+        public double getUtilization() {
+            long copies = onShelf + onLoan;
+            return copies == 0 ? 0 : (double) onLoan / copies;
+        }
+    }
+
+    /** How often a title has been lent; the name is null if the book has left the catalog. */
+    static final class TitleCount {
+        private final int bookId;
+        private final String name;
+        private final int issues;
+
+        TitleCount(int bookId, String name, int issues) {
+            this.bookId = bookId;
+            this.name = name;
+            this.issues = issues;
+        }
+
+        public int getBookId() { return bookId; }
+        public String getName() { return name; }
+        public int getIssues() { return issues; }
+    }
+
+    /** How often a student has borrowed, and how many loans they have out now. */
+    static final class BorrowerCount {
+        private final String name;
+        private final int issues;
+        private final int current;
+
+        BorrowerCount(String name, int issues, int current) {
+            this.name = name;
+            this.issues = issues;
+            this.current = current;
+        }
+
+        public String getName() { return name; }
+        public int getIssues() { return issues; }
+        public int getCurrent() { return current; }
+    }
+
+    /**
+     * The waitlist of one title: how many students are waiting and how long the first has waited, and
+     * how many holds have been filled and how long they waited on average. The name is null if the
+     * book has left the catalog.
+     */
+    static final class HoldQueue {
+        private static final double MILLIS_PER_DAY = 24 * 60 * 60 * 1000.0;
+
+        private final int bookId;
+        private final String name;
+        private final int waiting;
+        private final long longestWaitMillis;
+        private final long filled;
+        private final long totalWaitMillis;
+
+        HoldQueue(int bookId, String name, int waiting, long longestWaitMillis, long filled, long totalWaitMillis) {
+            this.bookId = bookId;
+            this.name = name;
+            this.waiting = waiting;
+            this.longestWaitMillis = longestWaitMillis;
+            this.filled = filled;
+            this.totalWaitMillis = totalWaitMillis;
+        }
+
+        public int getBookId() { return bookId; }
+        public String getName() { return name; }
+        public int getWaiting() { return waiting; }
+        public long getFilled() { return filled; }
+
+        /** How long the first student in the queue has waited, in days; 0 if nobody is waiting. */
+        public double getLongestWaitDays() { return longestWaitMillis / MILLIS_PER_DAY; }
+
+        /** The average wait of the filled holds, in days; 0 if none has been filled. */
+        public double getAverageWaitDays() {
+            return filled == 0 ? 0 : totalWaitMillis / MILLIS_PER_DAY / filled;
+        }
+    }
+
+    /**
+     * Returns the positions of the limit highest counts, highest first; equal counts are ordered by
+     * id. The ids and counts are parallel arrays.
+     */
+    static int[] top(int[] ids, int[] counts, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit must be at least 1");
+        }
+        int size = Math.min(limit, ids.length);
+        return IntStream.range(0, ids.length).parallel()
+                .collect(() -> new TopHeap(ids, counts, size), TopHeap::offer, TopHeap::merge)
+                .sorted();
+    }
+
+    /**
+     * A bounded min-heap of positions, worst at the root, so a candidate only has to beat the root.
+     */
+    private static final class TopHeap {
+        private final int[] ids;
+        private final int[] counts;
+        private final int[] heap;
+        private int size;
+
+        TopHeap(int[] ids, int[] counts, int capacity) {
+            this.ids = ids;
+            this.counts = counts;
+            this.heap = new int[capacity];
+        }
+
+        void offer(int position) {
+            if (size < heap.length) {
+                heap[size] = position;
+                siftUp(size++);
+            } else if (size > 0 && better(position, heap[0])) {
+                heap[0] = position;
+                siftDown(0);
+            }
+        }
+
+        void merge(TopHeap other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.heap[i]);
+            }
+        }
+
+        /** Empties the heap into an array, best first. */
+        int[] sorted() {
+            int[] result = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                result[i] = heap[0];
+                heap[0] = heap[--size];
+                siftDown(0);
+            }
+            return result;
+        }
+
+        private boolean better(int a, int b) {
+            return counts[a] != counts[b] ? counts[a] > counts[b] : ids[a] < ids[b];
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (!better(heap[parent], heap[index])) {
+                    return;
+                }
+                swap(parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int worst = index;
+                for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                    if (better(heap[worst], heap[child])) {
+                        worst = child;
+                    }
+                }
+                if (worst == index) {
+                    return;
+                }
+                swap(worst, index);
+                index = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int t = heap[a];
+            heap[a] = heap[b];
+            heap[b] = t;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Formatter;
+
+/**
+ * Formats listing rows into one reused buffer rather than creating a formatter per row as
+ * String.format does. Not thread-safe: each console or listing uses its own.
+ */
+class RowFormatter {
+
+    static final String BOOK_HEADER = String.format("%-15s %-7s %-20s %-20s %-7s %-10s %-7s",
+            "CATEGORY", "ID", "BOOK NAME", "AUTHOR", "QTY", "PRICE", "RACK NO");
+    static final String LOAN_HEADER = String.format("%-7s %-20s %-15s %-7s %-20s %-15s %-15s",
+            "LOAN ID", "STUDENT NAME", "CATEGORY", "ID", "BOOK NAME", "ISSUED DATE", "RETURN DATE");
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    private final StringBuilder buffer = new StringBuilder(128);
+    private final Formatter formatter = new Formatter(buffer);
+
+    /** A catalog row, laid out like Book.toString. */
+    String book(Book book) {
+        buffer.setLength(0);
+        formatter.format("%-15s %-7d %-20s %-20s %-7d %-10.2f %-7d", book.getCategory(), book.getId(),
+                book.getName(), book.getAuthor(), book.getQuantity(), book.getPrice(), book.getRackNo());
+        return buffer.toString();
+    }
+
+    /** An issued-book row; the book may be null if it has since left the catalog. */
+    String loan(Loan loan, String borrower, Book book) {
+        buffer.setLength(0);
+        formatter.format("%-7d %-20s %-15s %-7d %-20s ", loan.getLoanId(), borrower,
+                book == null ? "-" : book.getCategory(), loan.getBookId(), book == null ? "(deleted)" : book.getName());
+        date(loan.getIssuedDate());
+        buffer.append(' ');
+        date(loan.getDueDate());
+        return buffer.toString();
+    }
+
+    private void date(LocalDate date) {
+        int start = buffer.length();
+        DATE_FORMAT.formatTo(date, buffer);
+        while (buffer.length() - start < 15) {
+            buffer.append(' ');
+        }
+    }
+}
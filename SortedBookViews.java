@@ -0,0 +1,128 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The catalog in sorted order for paged listings: by id, by name, and by category then name.
+ *
+ * A page is read by seeking just past the last book of the previous page, so each page costs
+ * O(log n + page size) however deep the listing goes, and paging stays consistent while books are
+ * added or removed in between. Page tokens carry that position.
+ */
+class SortedBookViews {
+
+    private final SortedIntSet ids = new SortedIntSet();
+    private final TreeSet<Key> byName = new TreeSet<>();
+    private final TreeSet<Key> byCategory = new TreeSet<>();
+
+    public void add(Book book) {
+        ids.add(book.getId());
+        byName.add(new Key(sortText(BookOrder.NAME, book), book.getId()));
+        byCategory.add(new Key(sortText(BookOrder.CATEGORY, book), book.getId()));
+    }
+
+    public void remove(Book book) {
+        ids.remove(book.getId());
+        byName.remove(new Key(sortText(BookOrder.NAME, book), book.getId()));
+        byCategory.remove(new Key(sortText(BookOrder.CATEGORY, book), book.getId()));
+    }
+
+    /** The ids on one page, and the token for the next page (null on the last). */
+    static final class Slice {
+        final int[] ids;
+        final String nextToken;
+
+        Slice(int[] ids, String nextToken) {
+            this.ids = ids;
+            this.nextToken = nextToken;
+        }
+    }
+
+    /**
+     * Returns the ids of up to pageSize books in the given order, starting after the position in the
+     * token, or at the beginning if the token is null. The next token is made from the last key on the
+     * page, so it holds even if those books are deleted before the caller reads them.
+     * Throws IllegalArgumentException if the token is malformed or was made for another order.
+     */
+    public Slice page(BookOrder order, String token, int pageSize) {
+        Key after = token == null ? null : decode(order, token);
+        // One extra id tells whether there is a next page
+        int limit = pageSize + 1;
+        if (order == BookOrder.ID) {
+            int[] page = after == null ? ids.first(limit) : ids.after(after.id, limit);
+            if (page.length <= pageSize) {
+                return new Slice(page, null);
+            }
+            return new Slice(Arrays.copyOf(page, pageSize), encode(order, new Key("", page[pageSize - 1])));
+        }
+        NavigableSet<Key> view = order == BookOrder.NAME ? byName : byCategory;
+        Iterator<Key> keys = (after == null ? view : view.tailSet(after, false)).iterator();
+        int[] page = new int[Math.max(0, Math.min(pageSize, view.size()))];
+        int n = 0;
+        Key last = null;
+        while (n < page.length && keys.hasNext()) {
+            last = keys.next();
+            page[n++] = last.id;
+        }
+        String next = n == pageSize && keys.hasNext() ? encode(order, last) : null;
+        return new Slice(n == page.length ? page : Arrays.copyOf(page, n), next);
+    }
+
+    private static String encode(BookOrder order, Key key) {
+        String position = order.name() + "\n" + key.id + "\n" + key.text;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Key decode(BookOrder order, String token) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\n", 3);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+        if (parts.length != 3 || !parts[0].equals(order.name())) {
+            throw new IllegalArgumentException("Invalid page token for order " + order);
+        }
+        try {
+            return new Key(parts[2], Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+    }
+
+    private static String sortText(BookOrder order, Book book) {
+        String name = book.getName().toLowerCase(Locale.ROOT);
+        return order == BookOrder.CATEGORY ? book.getCategory() + "\u0000" + name : name;
+    }
+
+    /** A position in a sorted view: the text sorted on, then the id to break ties. */
+    private static final class Key implements Comparable<Key> {
+        final String text;
+        final int id;
+
+        Key(String text, int id) {
+            this.text = text;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byText = text.compareTo(other.text);
+            return byText != 0 ? byText : Integer.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + id;
+        }
+    }
+}
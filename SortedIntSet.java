@@ -0,0 +1,160 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of ints kept as a sorted array, used for index postings.
+ *
+ * Ids are mostly added in increasing order, so inserts are usually appends; lookups are binary searches.
+ */
+class SortedIntSet {
+
+    private static final int[] EMPTY = new int[0];
+
+    private int[] values;
+    private int size;
+    // Exact-size copy handed to readers, dropped on change. Readers under a shared lock may fill it
+    // concurrently, so it is volatile: a reader that sees the array also sees its contents.
+    private volatile int[] snapshot;
+
+    SortedIntSet() {
+        values = EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    /** Adds the value, returning false if it was already present. */
+    public boolean add(int value) {
+        int index = size == 0 || values[size - 1] < value ? -(size + 1) : Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            return false;
+        }
+        int insertAt = -(index + 1);
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, size + (size >> 1)));
+        }
+        System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+        values[insertAt] = value;
+        size++;
+        snapshot = null;
+        return true;
+    }
+
+    /** Removes the value, returning false if it was absent. */
+    public boolean remove(int value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        snapshot = null;
+        return true;
+    }
+
+    /**
+     * Returns the values as a sorted array. The array is shared by all callers until the set next
+     * changes, so repeated queries do not copy large postings; it must not be modified.
+     */
+    public int[] toArray() {
+        int[] result = snapshot;
+        if (result == null) {
+            result = Arrays.copyOf(values, size);
+            snapshot = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns up to limit values greater than the given one, in ascending order, without copying the rest.
+     */
+    public int[] after(int value, int limit) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        int from = index >= 0 ? index + 1 : -(index + 1);
+        return Arrays.copyOfRange(values, from, Math.min(size, from + Math.max(0, limit)));
+    }
+
+    /** Returns up to limit of the smallest values, in ascending order. */
+    public int[] first(int limit) {
+        return Arrays.copyOf(values, Math.min(size, Math.max(0, limit)));
+    }
+
+    /** Calls the consumer for each value in ascending order. */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(values[i]);
+        }
+    }
+
+    /**
+     * Intersects two sorted arrays. When one is much smaller, its values are binary-searched in the
+     * other instead of walking both.
+     */
+    static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] swap = a;
+            a = b;
+            b = swap;
+        }
+        if ((long) a.length * 32 < b.length) {
+            int[] result = new int[a.length];
+            int n = 0;
+            int from = 0;
+            for (int value : a) {
+                int index = Arrays.binarySearch(b, from, b.length, value);
+                if (index >= 0) {
+                    result[n++] = value;
+                    from = index + 1;
+                } else {
+                    from = -(index + 1);
+                }
+            }
+            return Arrays.copyOf(result, n);
+        }
+        int[] result = new int[a.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Merges two sorted arrays, dropping duplicates. */
+    static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
@@ -0,0 +1,225 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deduplicated strings stored off the heap as UTF-8, referred to by int handles.
+ *
+ * Each distinct string is stored once, however many books use it (authors and categories repeat a
+ * lot). The bytes, their positions and reference counts live in direct buffers; only the hash table
+ * of handles is on the heap, as a single int array that the garbage collector does not need to trace.
+ *
+ * Every intern counts a reference and every release drops one. A string nobody refers to any more
+ * gives up its handle for reuse, and once such dead bytes outweigh the live ones the live strings
+ * are copied into a fresh buffer; handles stay the same, so callers never see the move.
+ */
+class StringPool {
+
+    /** The handle of null. */
+    static final int NULL = -1;
+
+    private static final int MIN_COMPACT_BYTES = 1 << 16;
+
+    private ByteBuffer bytes = ByteBuffer.allocateDirect(MIN_COMPACT_BYTES);
+    private IntBuffer starts = newInts(1024); // by handle; the next free handle for a free one
+    private IntBuffer lengths = newInts(1024);
+    private IntBuffer refs = newInts(1024); // 0 for a free handle
+    private int handles; // handles ever given out, live or free
+    private int live; // strings with references
+    private int freeHandle = NULL;
+    private int end; // bytes written, live or dead
+    private int liveBytes;
+    private int[] table = new int[1024]; // handle + 1 of each live string, or 0
+    private int mask = table.length - 1;
+
+    /** Returns the handle of the string, adding it if it is not in the pool yet, and counts a reference to it. */
+    int intern(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        int slot = hash(encoded) & mask;
+        for (int entry = table[slot]; entry != 0; entry = table[slot]) {
+            if (equals(entry - 1, encoded)) {
+                refs.put(entry - 1, refs.get(entry - 1) + 1);
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int handle = append(encoded);
+        table[slot] = handle + 1;
+        if (live * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return handle;
+    }
+
+    /** Drops one reference to the string; the last one frees it. */
+    void release(int handle) {
+        if (handle == NULL) {
+            return;
+        }
+        int count = refs.get(handle) - 1;
+        refs.put(handle, count);
+        if (count > 0) {
+            return;
+        }
+        unlink(handle);
+        liveBytes -= lengths.get(handle);
+        live--;
+        starts.put(handle, freeHandle);
+        freeHandle = handle;
+        if (end - liveBytes > Math.max(liveBytes, MIN_COMPACT_BYTES)) {
+            compact();
+        }
+    }
+
+    /** Returns the string with the given handle. */
+    String get(int handle) {
+        if (handle == NULL) {
+            return null;
+        }
+        byte[] encoded = new byte[lengths.get(handle)];
+        bytes.get(starts.get(handle), encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /** Number of distinct strings in use. */
+    int size() {
+        return live;
+    }
+
+    /** Bytes of string data held off the heap, including freed strings not yet compacted away. */
+    long bytesUsed() {
+        return end;
+    }
+
+    void clear() {
+        handles = 0;
+        live = 0;
+        freeHandle = NULL;
+        end = 0;
+        liveBytes = 0;
+        Arrays.fill(table, 0);
+    }
+
+    private int append(byte[] encoded) {
+        if (end + encoded.length > bytes.capacity()) {
+            long capacity = Math.max((long) bytes.capacity() * 2, (long) end + encoded.length);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("String pool is full");
+            }
+            ByteBuffer larger = ByteBuffer.allocateDirect((int) capacity);
+            larger.put(0, bytes, 0, end);
+            bytes = larger;
+        }
+        int handle = freeHandle;
+        if (handle != NULL) {
+            freeHandle = starts.get(handle);
+        } else {
+            if (handles == starts.capacity()) {
+                starts = grow(starts, handles * 2);
+                lengths = grow(lengths, handles * 2);
+                refs = grow(refs, handles * 2);
+            }
+            handle = handles++;
+        }
+        bytes.put(end, encoded);
+        starts.put(handle, end);
+        lengths.put(handle, encoded.length);
+        refs.put(handle, 1);
+        end += encoded.length;
+        liveBytes += encoded.length;
+        live++;
+        return handle;
+    }
+
+    /** Copies the live strings into a buffer of their own, keeping their handles. */
+    private void compact() {
+        ByteBuffer compacted = ByteBuffer.allocateDirect(Math.max(liveBytes * 2, MIN_COMPACT_BYTES));
+        int position = 0;
+        for (int handle = 0; handle < handles; handle++) {
+            if (refs.get(handle) > 0) {
+                int length = lengths.get(handle);
+                compacted.put(position, bytes, starts.get(handle), length);
+                starts.put(handle, position);
+                position += length;
+            }
+        }
+        bytes = compacted;
+        end = position;
+    }
+
+    /** Takes the handle out of the hash table, shifting back the entries probed past it. */
+    private void unlink(int handle) {
+        int slot = slotOf(handle);
+        for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = hash(bytesOf(table[next] - 1)) & mask;
+            // Move the entry into the gap unless its home lies cyclically in (slot, next]
+            if (slot <= next ? (home <= slot || home > next) : (home <= slot && home > next)) {
+                table[slot] = table[next];
+                slot = next;
+            }
+        }
+        table[slot] = 0;
+    }
+
+    private int slotOf(int handle) {
+        int slot = hash(bytesOf(handle)) & mask;
+        while (table[slot] != handle + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private byte[] bytesOf(int handle) {
+        byte[] encoded = new byte[lengths.get(handle)];
+        bytes.get(starts.get(handle), encoded);
+        return encoded;
+    }
+
+    private boolean equals(int handle, byte[] encoded) {
+        int start = starts.get(handle);
+        if (lengths.get(handle) != encoded.length) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (bytes.get(start + i) != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int handle = 0; handle < handles; handle++) {
+            if (refs.get(handle) == 0) {
+                continue;
+            }
+            int slot = hash(bytesOf(handle)) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = handle + 1;
+        }
+    }
+
+    private static IntBuffer grow(IntBuffer column, int capacity) {
+        IntBuffer larger = newInts(capacity);
+        larger.put(0, column, 0, column.capacity());
+        return larger;
+    }
+
+    private static int hash(byte[] encoded) {
+        int h = Arrays.hashCode(encoded) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static IntBuffer newInts(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
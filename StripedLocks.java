@@ -0,0 +1,40 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out by book id, so operations on different books rarely contend
+ * while operations on the same book are serialized.
+ */
+class StripedLocks {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /** Creates at least the given number of stripes, rounded up to a power of two. */
+    StripedLocks(int minStripes) {
+        int count = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = count - 1;
+    }
+
+    /** Returns the lock guarding the given id. */
+    ReentrantLock forId(int id) {
+        int h = id * 0x9E3779B9; // spread consecutive ids over the stripes
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    /** Takes every stripe, always in the same order, for an operation spanning many ids. */
+    void lockAll() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An inverted index over book names and authors.
+ *
+ * Text is split into lower-case words; each word maps to the sorted ids of the books containing it,
+ * separately for the name and author fields. Sorted term dictionaries make prefix lookups a range scan.
+ * The words of both fields are also kept in a TrigramIndex, so a misspelt query can be matched to the
+ * words it was probably meant to be.
+ */
+class TextIndex {
+
+    private static final double NAME_WEIGHT = 2.0;
+    private static final double AUTHOR_WEIGHT = 1.0;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final TreeMap<String, SortedIntSet> nameTerms = new TreeMap<>();
+    private final TreeMap<String, SortedIntSet> authorTerms = new TreeMap<>();
+    private final TrigramIndex vocabulary = new TrigramIndex();
+    private int documents;
+
+    public void add(Book book) {
+        index(nameTerms, book.getName(), book.getId());
+        index(authorTerms, book.getAuthor(), book.getId());
+        documents++;
+    }
+
+    public void remove(Book book) {
+        unindex(nameTerms, book.getName(), book.getId());
+        unindex(authorTerms, book.getAuthor(), book.getId());
+        documents--;
+    }
+
+    /**
+     * Returns the ids of books whose name contains every word of the given name, in ascending order,
+     * or null if the name has no words to look up.
+     * Callers compare the full name themselves; this only narrows down the candidates.
+     */
+    public int[] nameCandidates(String name) {
+        int[] result = null;
+        for (String word : tokenize(name)) {
+            SortedIntSet postings = nameTerms.get(word);
+            if (postings == null) {
+                return EMPTY;
+            }
+            result = result == null ? postings.toArray() : SortedIntSet.intersect(result, postings.toArray());
+        }
+        return result;
+    }
+
+    /**
+     * Finds books matching a query, best matches first.
+     * All words must match (in the name or the author); "OR" separates alternatives,
+     * and a word ending in '*' matches any word starting with it.
+     * Matches in the name count double, and rarer words count more.
+     */
+    public int[] search(String query) {
+        List<List<Term>> groups = parse(query);
+        int[] matches = EMPTY;
+        Set<Term> allTerms = new LinkedHashSet<>();
+        for (List<Term> group : groups) {
+            int[] groupMatches = null;
+            // Start from the rarest word so the intersections stay small
+            group.sort((x, y) -> Integer.compare(x.nameIds.length + x.authorIds.length, y.nameIds.length + y.authorIds.length));
+            for (Term term : group) {
+                groupMatches = groupMatches == null
+                        ? SortedIntSet.union(term.nameIds, term.authorIds) : term.filter(groupMatches);
+            }
+            if (groupMatches != null) {
+                matches = SortedIntSet.union(matches, groupMatches);
+            }
+            allTerms.addAll(group);
+        }
+        return rank(matches, allTerms);
+    }
+
+    /**
+     * Finds books whose name or author has, for every word of the query, a word within a few edits of
+     * it (see TrigramIndex.maxEdits), fewest edits in total first; books with equal edits are ranked by
+     * how many of the matching words are in the name.
+     */
+    public int[] fuzzySearch(String query) {
+        IntIntMap scores = null; // 100 per edit, less 1 per word matched in the name
+        for (String word : tokenize(query)) {
+            IntIntMap wordScores = new IntIntMap();
+            for (TrigramIndex.Match match : similarWords(word)) {
+                int score = 100 * match.getDistance();
+                best(wordScores, nameTerms.get(match.getWord()), score - 1);
+                best(wordScores, authorTerms.get(match.getWord()), score);
+            }
+            if (scores == null) {
+                scores = wordScores;
+                continue;
+            }
+            IntIntMap combined = new IntIntMap();
+            IntIntMap previous = scores;
+            wordScores.forEach((id, score) -> {
+                int before = previous.get(id, Integer.MIN_VALUE);
+                if (before != Integer.MIN_VALUE) {
+                    combined.put(id, before + score);
+                }
+            });
+            scores = combined;
+        }
+        if (scores == null) {
+            return EMPTY;
+        }
+        long[] ranked = new long[scores.size()];
+        int[] n = {0};
+        scores.forEach((id, score) -> ranked[n[0]++] = ((long) score << 32) | (id & 0xFFFFFFFFL));
+        Arrays.sort(ranked);
+        int[] ids = new int[ranked.length];
+        for (int i = 0; i < ranked.length; i++) {
+            ids[i] = (int) ranked[i];
+        }
+        return ids;
+    }
+
+    /** The indexed words the given one may have been meant as, closest first; numbers only match exactly. */
+    private List<TrigramIndex.Match> similarWords(String word) {
+        if (TrigramIndex.accepts(word) && TrigramIndex.maxEdits(word) > 0) {
+            return vocabulary.similar(word, TrigramIndex.maxEdits(word));
+        }
+        List<TrigramIndex.Match> exact = new ArrayList<>();
+        if (nameTerms.containsKey(word) || authorTerms.containsKey(word)) {
+            exact.add(new TrigramIndex.Match(word, 0));
+        }
+        return exact;
+    }
+
+    /** Lowers the score of each book in the postings to the given one, if that is better. */
+    private static void best(IntIntMap scores, SortedIntSet postings, int score) {
+        if (postings != null) {
+            postings.forEach(id -> scores.put(id, Math.min(score, scores.get(id, Integer.MAX_VALUE))));
+        }
+    }
+
+    /**
+     * Splits text into lower-case runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private int[] rank(int[] matches, Collection<Term> terms) {
+        double[] scores = new double[matches.length];
+        for (Term term : terms) {
+            int df = term.nameIds.length + term.authorIds.length; // upper bound; avoids merging large postings
+            double idf = Math.log(1.0 + (double) documents / Math.max(1, df));
+            for (int i = 0; i < matches.length; i++) {
+                if (Arrays.binarySearch(term.nameIds, matches[i]) >= 0) {
+                    scores[i] += NAME_WEIGHT * idf;
+                }
+                if (Arrays.binarySearch(term.authorIds, matches[i]) >= 0) {
+                    scores[i] += AUTHOR_WEIGHT * idf;
+                }
+            }
+        }
+        Integer[] order = new Integer[matches.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b]
+                ? Double.compare(scores[b], scores[a]) : Integer.compare(matches[a], matches[b]));
+        int[] ranked = new int[matches.length];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = matches[order[i]];
+        }
+        return ranked;
+    }
+
+    private List<List<Term>> parse(String query) {
+        List<List<Term>> groups = new ArrayList<>();
+        List<Term> group = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("OR") || word.equals("|")) {
+                if (!group.isEmpty()) {
+                    groups.add(group);
+                    group = new ArrayList<>();
+                }
+                continue;
+            }
+            boolean prefix = word.endsWith("*");
+            List<String> parts = tokenize(word);
+            for (int i = 0; i < parts.size(); i++) {
+                group.add(lookup(parts.get(i), prefix && i == parts.size() - 1));
+            }
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    private Term lookup(String word, boolean prefix) {
+        return new Term(word + (prefix ? "*" : ""), matching(nameTerms, word, prefix), matching(authorTerms, word, prefix));
+    }
+
+    private static int[] matching(TreeMap<String, SortedIntSet> terms, String word, boolean prefix) {
+        if (!prefix) {
+            SortedIntSet postings = terms.get(word);
+            return postings == null ? EMPTY : postings.toArray();
+        }
+        Collection<SortedIntSet> expansions = terms.subMap(word, word + Character.MAX_VALUE).values();
+        int total = 0;
+        for (SortedIntSet postings : expansions) {
+            total += postings.size();
+        }
+        // Concatenate, then sort and drop duplicates once, rather than merging pairwise
+        int[] all = new int[total];
+        int n = 0;
+        for (SortedIntSet postings : expansions) {
+            int[] ids = postings.toArray();
+            System.arraycopy(ids, 0, all, n, ids.length);
+            n += ids.length;
+        }
+        Arrays.sort(all);
+        int distinct = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (distinct == 0 || all[distinct - 1] != all[i]) {
+                all[distinct++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, distinct);
+    }
+
+    private void index(Map<String, SortedIntSet> terms, String text, int id) {
+        for (String word : tokenize(text)) {
+            terms.computeIfAbsent(word, w -> new SortedIntSet()).add(id);
+            if (TrigramIndex.accepts(word)) {
+                vocabulary.add(word);
+            }
+        }
+    }
+
+    private void unindex(Map<String, SortedIntSet> terms, String text, int id) {
+        for (String word : tokenize(text)) {
+            SortedIntSet postings = terms.get(word);
+            if (postings != null && postings.remove(id) && postings.isEmpty()) {
+                terms.remove(word);
+                if (!nameTerms.containsKey(word) && !authorTerms.containsKey(word)) {
+                    vocabulary.remove(word);
+                }
+            }
+        }
+    }
+
+    /** A query word and the ids it matches in each field. */
+    private static final class Term {
+        final String text;
+        final int[] nameIds;
+        final int[] authorIds;
+
+        Term(String text, int[] nameIds, int[] authorIds) {
+            this.text = text;
+            this.nameIds = nameIds;
+            this.authorIds = authorIds;
+        }
+
+        /** Keeps the candidates this word matches in either field. */
+        int[] filter(int[] candidates) {
+            return SortedIntSet.union(SortedIntSet.intersect(candidates, nameIds), SortedIntSet.intersect(candidates, authorIds));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Term && ((Term) other).text.equals(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+    }
+}
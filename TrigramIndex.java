@@ -0,0 +1,200 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of words by their three-character fragments, for finding the words within a few typing
+ * errors of a misspelt one without comparing it to every word.
+ *
+ * Each word is padded with two marks at each end and split into overlapping trigrams ("cat" gives
+ * "$$c", "$ca", "cat", "at$", "t$$"). One insertion, deletion or substitution changes at most three
+ * of them, so a word within k edits of the query shares at least (distinct trigrams of the query - 3k)
+ * of them. Only the words passing that count, and within k of its length, are compared with an edit
+ * distance that gives up as soon as it exceeds k. The counts go in a per-thread array that is reset
+ * only where a lookup touched it, so a lookup costs the postings it reads, not the vocabulary.
+ *
+ * Not thread-safe for changes; TextIndex's owner synchronizes access, and lookups may run together.
+ */
+class TrigramIndex {
+
+    private static final char PAD = '$'; // never part of a word, which is letters and digits only
+
+    private final Map<String, SortedIntSet> postings = new HashMap<>();
+    private final List<String> words = new ArrayList<>(); // by word id; null for a free id
+    private final Map<String, Integer> wordIds = new HashMap<>();
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private final ThreadLocal<Counts> counts = ThreadLocal.withInitial(Counts::new);
+
+    /** A word found by similar, and its edit distance from the query. */
+    static final class Match {
+        private final String word;
+        private final int distance;
+
+        Match(String word, int distance) {
+            this.word = word;
+            this.distance = distance;
+        }
+
+        public String getWord() { return word; }
+        public int getDistance() { return distance; }
+    }
+
+    /**
+     * Whether a word is worth indexing: not a number, and long enough to be within an edit of a
+     * query that allows one (queries of 3 characters or more).
+     */
+    static boolean accepts(String word) {
+        return word.length() >= 2 && !word.chars().allMatch(Character::isDigit);
+    }
+
+    /** The number of edits tolerated for a word of this length: none up to 2 characters, 1 up to 5, then 2. */
+    static int maxEdits(String word) {
+        return word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+    }
+
+    /** Adds the word if it is not indexed yet. */
+    public void add(String word) {
+        if (wordIds.containsKey(word)) {
+            return;
+        }
+        int id;
+        if (freeIds.isEmpty()) {
+            id = words.size();
+            words.add(word);
+        } else {
+            id = freeIds.pop();
+            words.set(id, word);
+        }
+        wordIds.put(word, id);
+        for (String trigram : trigrams(word)) {
+            postings.computeIfAbsent(trigram, t -> new SortedIntSet()).add(id);
+        }
+    }
+
+    public void remove(String word) {
+        Integer id = wordIds.remove(word);
+        if (id == null) {
+            return;
+        }
+        for (String trigram : trigrams(word)) {
+            SortedIntSet ids = postings.get(trigram);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                postings.remove(trigram);
+            }
+        }
+        words.set(id, null);
+        freeIds.push(id);
+    }
+
+    /** Returns the indexed words within maxEdits edits of the given one (itself included), closest first. */
+    public List<Match> similar(String word, int maxEdits) {
+        Set<String> grams = trigrams(word);
+        int needed = grams.size() - 3 * maxEdits;
+        List<Match> matches = new ArrayList<>();
+        if (needed <= 0) {
+            // Too short for the trigrams to prune anything; only an exact match is cheap to find
+            if (wordIds.containsKey(word)) {
+                matches.add(new Match(word, 0));
+            }
+            return matches;
+        }
+        Counts shared = counts.get();
+        shared.ensureCapacity(words.size());
+        try {
+            for (String trigram : grams) {
+                SortedIntSet ids = postings.get(trigram);
+                if (ids == null) {
+                    continue;
+                }
+                ids.forEach(id -> {
+                    if (shared.increment(id) == needed) {
+                        String candidate = words.get(id);
+                        if (Math.abs(candidate.length() - word.length()) <= maxEdits) {
+                            int distance = distance(word, candidate, maxEdits);
+                            if (distance <= maxEdits) {
+                                matches.add(new Match(candidate, distance));
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            shared.reset();
+        }
+        matches.sort((a, b) -> a.distance != b.distance
+                ? Integer.compare(a.distance, b.distance) : a.word.compareTo(b.word));
+        return matches;
+    }
+
+    /**
+     * The Levenshtein distance between the two words, or max + 1 if it is more than max; stops as
+     * soon as a whole row of the table exceeds max.
+     */
+    static int distance(String a, String b, int max) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int best = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+                best = Math.min(best, current[j]);
+            }
+            if (best > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    /** Shared trigram counts by word id, with the ids touched so they can be reset without a sweep. */
+    private static final class Counts {
+        private int[] shared = new int[0];
+        private int[] touched = new int[16];
+        private int size;
+
+        void ensureCapacity(int words) {
+            if (shared.length < words) {
+                shared = new int[Math.max(words, shared.length + (shared.length >> 1))];
+            }
+        }
+
+        int increment(int id) {
+            if (shared[id] == 0) {
+                if (size == touched.length) {
+                    touched = Arrays.copyOf(touched, size * 2);
+                }
+                touched[size++] = id;
+            }
+            return ++shared[id];
+        }
+
+        void reset() {
+            for (int i = 0; i < size; i++) {
+                shared[touched[i]] = 0;
+            }
+            size = 0;
+        }
+    }
+
+    private static Set<String> trigrams(String word) {
+        String padded = "" + PAD + PAD + word + PAD + PAD;
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+}
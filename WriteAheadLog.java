@@ -0,0 +1,180 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of opaque records, used to persist one small record per mutation
+ * instead of rewriting a whole data file.
+ *
+ * Layout: a header (magic, generation) followed by frames of [length][crc32][payload].
+ * A torn or corrupt frame at the tail (e.g. after a crash mid-write) is truncated on replay.
+ */
+class WriteAheadLog implements Closeable {
+
+    private static final int MAGIC = 0x4C4D5357; // "LMSW"
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int FRAME_OVERHEAD = Integer.BYTES * 2;
+    /** The largest record a frame can hold: the largest array less the frame header. */
+    static final int MAX_RECORD_SIZE = Integer.MAX_VALUE - 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Metrics.Timer appends;
+    private final Metrics.Counter bytesRead;
+    private final Metrics.Counter bytesWritten;
+    private long generation;
+    private long records;
+
+    WriteAheadLog(Path path) throws IOException {
+        this.path = path;
+        String metric = "storage." + path.getFileName();
+        this.appends = Metrics.timer(metric + ".append");
+        this.bytesRead = Metrics.counter(metric + ".bytesRead");
+        this.bytesWritten = Metrics.counter(metric + ".bytesWritten");
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader(0);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a write-ahead log: " + path);
+            }
+            generation = header.getLong();
+        }
+    }
+
+    /**
+     * The snapshot generation this log applies on top of. A log whose generation does not
+     * match the snapshot's is stale (it was already folded into the snapshot) and must be discarded.
+     */
+    long generation() { return generation; }
+
+    /** Number of records appended to (or replayed from) this log. */
+    long records() { return records; }
+
+    /** Size of the log file in bytes. */
+    long size() throws IOException { return channel.size(); }
+
+    /**
+     * Feeds every intact record to the consumer in append order, truncating any torn tail.
+     * @return the number of records replayed.
+     */
+    long replay(Consumer<ByteBuffer> consumer) throws IOException {
+        long position = HEADER_SIZE;
+        long end = channel.size();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_OVERHEAD);
+        CRC32 crc = new CRC32();
+        records = 0;
+        while (position + FRAME_OVERHEAD <= end) {
+            frame.clear();
+            readFully(frame, position);
+            frame.flip();
+            int length = frame.getInt();
+            int checksum = frame.getInt();
+            if (length < 0 || length > MAX_RECORD_SIZE || position + FRAME_OVERHEAD + length > end) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + FRAME_OVERHEAD);
+            payload.flip();
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            consumer.accept(payload);
+            position += FRAME_OVERHEAD + length;
+            records++;
+        }
+        if (position < end) {
+            System.err.println("Warning: discarding " + (end - position) + " corrupt trailing bytes of " + path);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        bytesRead.add(position);
+        channel.position(position);
+        return records;
+    }
+
+    /**
+     * Appends one record and forces it to disk before returning.
+     */
+    void append(byte[] payload) throws IOException {
+        append(List.of(payload));
+    }
+
+    /**
+     * Appends several records with a single gathering write and a single force, so a batch costs one
+     * flush. Throws IllegalArgumentException, writing nothing, if a record is larger than MAX_RECORD_SIZE,
+     * since replay could not read it back.
+     */
+    void append(List<byte[]> payloads) throws IOException {
+        long start = Metrics.start();
+        long total = 0;
+        ByteBuffer[] frames = new ByteBuffer[payloads.size() * 2];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < payloads.size(); i++) {
+            byte[] payload = payloads.get(i);
+            if (payload.length > MAX_RECORD_SIZE) {
+                throw new IllegalArgumentException("A log record of " + payload.length + " bytes is larger than "
+                        + MAX_RECORD_SIZE + " bytes");
+            }
+            crc.reset();
+            crc.update(payload);
+            frames[2 * i] = ByteBuffer.allocate(FRAME_OVERHEAD).putInt(payload.length).putInt((int) crc.getValue()).flip();
+            frames[2 * i + 1] = ByteBuffer.wrap(payload);
+            total += FRAME_OVERHEAD + payload.length;
+        }
+        for (long written = 0; written < total; ) {
+            written += channel.write(frames);
+        }
+        channel.force(false);
+        records += payloads.size();
+        bytesWritten.add(total);
+        appends.stop(start);
+    }
+
+    /**
+     * Empties the log and stamps it with a new generation, after its records were folded into a snapshot.
+     */
+    void reset(long newGeneration) throws IOException {
+        channel.truncate(0);
+        writeHeader(newGeneration);
+        records = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeHeader(long newGeneration) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(newGeneration);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.truncate(HEADER_SIZE);
+        channel.force(true);
+        generation = newGeneration;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + path);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import lms.bench.Workload;
+
+/**
+ * Drives the library for the benchmarks in lms.bench, which cannot name its classes themselves.
+ *
+ * The library is opened the same way as by LibraryManagementSystem: a journaled catalog, loan store
+ * and hold store in one directory, recovered and then indexed.
+ */
+public class LibraryWorkload implements Workload {
+
+    /** Words the generated names and authors are made of, so keyword queries match realistic fractions. */
+    static final String[] WORDS = {
+        "applied", "advanced", "basic", "circuits", "concrete", "control", "data", "design",
+        "digital", "dynamics", "electric", "engineering", "fluid", "foundations", "heat", "introduction",
+        "machines", "materials", "mechanics", "networks", "power", "principles", "programming", "signals",
+        "soil", "structures", "systems", "theory", "thermodynamics", "transfer", "vibrations", "water"
+    };
+    private static final String[] AUTHORS = {
+        "Rao", "Sharma", "Iyer", "Gupta", "Singh", "Kumar", "Das", "Nair", "Mehta", "Bose", "Khan", "Patel"
+    };
+    private static final int VOLUMES = 97;
+    private static final int LOAN_DAYS = 15;
+
+    private Journal journal;
+    private Library library;
+
+    /** The name of the generated book with the given id; names repeat roughly every 100k books. */
+    static String name(int id) {
+        int words = id / VOLUMES;
+        return capitalize(WORDS[words % WORDS.length]) + " " + capitalize(WORDS[(words / WORDS.length) % WORDS.length])
+                + " Vol. " + (id % VOLUMES + 1);
+    }
+
+    @Override
+    public void generate(Path directory, int books) {
+        List<Book> catalog = new ArrayList<>(books);
+        for (int id = 1; id <= books; id++) {
+            catalog.add(new Book(id, name(id), AUTHORS[id % AUTHORS.length] + " " + AUTHORS[(id / 7) % AUTHORS.length],
+                    1 + id % 5, 100 + id % 900, 1 + id % 40, Book.CATEGORIES[id % Book.CATEGORIES.length]));
+        }
+        try {
+            BookCodec.writeSnapshot(directory.resolve("books.dat"), 0, catalog);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing the catalog", e);
+        }
+    }
+
+    @Override
+    public void open(Path directory) {
+        try {
+            journal = Journal.open(directory.resolve("library.journal"));
+            BookStore catalog = BookStore.journaled(directory.resolve("books.dat").toString(), journal);
+            LoanStore loans = LoanStore.open(directory.resolve("loans.dat").toString(),
+                    directory.resolve("issue.dat").toString(), journal);
+            HoldStore holds = HoldStore.open(directory.resolve("holds.dat").toString(), journal);
+            journal.recover();
+            library = new Library(catalog, loans, holds, journal);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening the library", e);
+        }
+    }
+
+    @Override
+    public void save() {
+        journal.compact();
+    }
+
+    @Override
+    public Object findBook(int id) {
+        return library.findBook(id);
+    }
+
+    @Override
+    public Object findByName(int id) {
+        return library.findByName(name(id));
+    }
+
+    @Override
+    public Object search(String query) {
+        return library.search(query);
+    }
+
+    @Override
+    public Object fuzzySearch(String query) {
+        return library.fuzzySearch(query, 10);
+    }
+
+    @Override
+    public Object issueAndReturn(int id) {
+        Loan loan = library.issueBook(id, "Benchmark Student", LOAN_DAYS);
+        return library.returnBook(loan.getLoanId());
+    }
+
+    @Override
+    public void close() {
+        if (library != null) {
+            library.close();
+            library = null;
+            journal = null;
+        }
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
@@ -0,0 +1,29 @@
+package lms.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Issuing a random book and returning it again. Both are durable journal commits, so this mostly
+ * measures the flush; run with -t to see how group commit shares it between desks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CirculationBenchmark {
+
+    @Benchmark
+    public Object issueAndReturn(OpenLibrary library) {
+        return library.workload.issueAndReturn(ThreadLocalRandom.current().nextInt(1, library.books + 1));
+    }
+}
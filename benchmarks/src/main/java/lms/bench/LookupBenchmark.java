@@ -0,0 +1,63 @@
+package lms.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read paths: lookup by id, exact name lookup, keyword search and typo-tolerant search, each for a
+ * random book or word.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+
+    private static final String[] WORDS = {"circuits", "mechanics", "signals", "structures", "thermodynamics"};
+
+    @Benchmark
+    public Object findBook(OpenLibrary library) {
+        return library.workload.findBook(randomId(library));
+    }
+
+    @Benchmark
+    public Object findByName(OpenLibrary library) {
+        return library.workload.findByName(randomId(library));
+    }
+
+    /** Two words in the name, as someone searching for a title would type. */
+    @Benchmark
+    public Object searchWords(OpenLibrary library) {
+        return library.workload.search(randomWord() + " " + randomWord());
+    }
+
+    @Benchmark
+    public Object searchPrefix(OpenLibrary library) {
+        return library.workload.search(randomWord().substring(0, 4) + "*");
+    }
+
+    /** A word with one letter dropped, as a "did you mean" lookup. */
+    @Benchmark
+    public Object fuzzySearch(OpenLibrary library) {
+        String word = randomWord();
+        int typo = ThreadLocalRandom.current().nextInt(word.length());
+        return library.workload.fuzzySearch(word.substring(0, typo) + word.substring(typo + 1));
+    }
+
+    private static int randomId(OpenLibrary library) {
+        return ThreadLocalRandom.current().nextInt(1, library.books + 1);
+    }
+
+    private static String randomWord() {
+        return WORDS[ThreadLocalRandom.current().nextInt(WORDS.length)];
+    }
+}
@@ -0,0 +1,27 @@
+package lms.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** The generated catalog opened as a library, shared by every benchmark thread of a trial. */
+@State(Scope.Benchmark)
+public class OpenLibrary {
+
+    public Workload workload;
+    public int books;
+
+    @Setup(Level.Trial)
+    public void open(CatalogState catalog) {
+        books = catalog.books;
+        workload = Workload.create();
+        workload.open(catalog.directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        workload.close();
+    }
+}
@@ -0,0 +1,36 @@
+package lms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening the library (snapshot load, journal replay and index build) and saving it (a full snapshot of
+ * every store). Each is timed as a single cold-ish shot, as it runs once per start or compaction.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Benchmark
+    public Workload load(CatalogState catalog) {
+        Workload workload = Workload.create();
+        workload.open(catalog.directory);
+        workload.close();
+        return workload;
+    }
+
+    @Benchmark
+    public void save(OpenLibrary library) {
+        library.workload.save();
+    }
+}
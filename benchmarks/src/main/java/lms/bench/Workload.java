@@ -0,0 +1,52 @@
+package lms.bench;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+
+/**
+ * The library operations the benchmarks measure.
+ *
+ * The library's classes live in the unnamed package, which JMH benchmarks (and any other named package)
+ * cannot refer to, so the benchmarks drive it through this interface. It is implemented by
+ * LibraryWorkload, an unnamed-package class that calls the library directly; each benchmark call is one
+ * monomorphic interface call, which the JIT inlines.
+ */
+public interface Workload extends Closeable {
+
+    /** Creates a workload over the library classes on the classpath. */
+    static Workload create() {
+        try {
+            return (Workload) Class.forName("LibraryWorkload").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("LibraryWorkload is not on the classpath", e);
+        }
+    }
+
+    /** Writes a catalog of the given number of generated books (ids 1 to books) into the directory. */
+    void generate(Path directory, int books);
+
+    /** Opens the library stored in the directory: loads the snapshots, replays the journal and builds the indexes. */
+    void open(Path directory);
+
+    /** Writes every store's snapshot and empties the journal. */
+    void save();
+
+    /** Looks a book up by id. */
+    Object findBook(int id);
+
+    /** Looks books up by the exact name of the generated book with the given id. */
+    Object findByName(int id);
+
+    /** Runs a keyword search. */
+    Object search(String query);
+
+    /** Runs a typo-tolerant search, returning at most ten books. */
+    Object fuzzySearch(String query);
+
+    /** Issues a copy of the book and returns it, committing both to the journal. */
+    Object issueAndReturn(int id);
+
+    /** Closes the library, snapshotting if anything was logged since it was opened. */
+    @Override
+    void close();
+}